@@ -0,0 +1,45 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.BasicPostfixCalculator;
+import pl.plh.tcalc.processor.PostfixCalculator;
+import pl.plh.tcalc.processor.RationalPostfixCalculator;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// The postfix calculation stage
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CalculateBenchmark {
+    private final PostfixCalculator basic = new BasicPostfixCalculator(ExpressionState.LIMIT);
+    private final PostfixCalculator tiered = new TieredPostfixCalculator(ExpressionState.LIMIT);
+    private final PostfixCalculator rational = new RationalPostfixCalculator(ExpressionState.LIMIT);
+
+    // tokens parsed on every calculation
+    @Benchmark
+    public BigDecimal basicTokens(ExpressionState expression) {
+        return basic.calculate(expression.postfix);
+    }
+
+    @Benchmark
+    public BigDecimal basic(ExpressionState expression) {
+        return basic.calculate(expression.program);
+    }
+
+    @Benchmark
+    public BigDecimal tiered(ExpressionState expression) {
+        return tiered.calculate(expression.program);
+    }
+
+    // exact fractions divided once, compare with -p mix=div
+    @Benchmark
+    public BigDecimal rational(ExpressionState expression) {
+        return rational.calculate(expression.program);
+    }
+}
@@ -0,0 +1,68 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.TCalcBench;
+import pl.plh.tcalc.processor.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Calculation of a generated subexpression repeated in brackets: (s)/(s+1)+(s)/(s+2)+...
+// as compiled and after the elimination of common subexpressions.
+// Run with: java -jar target/benchmarks.jar CommonSubexpressionBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommonSubexpressionBenchmark {
+    // literals of the subexpression
+    @Param({"8", "64"})
+    private int length;
+
+    // add, mul, div or mixed
+    @Param({"mixed", "div"})
+    private String mix;
+
+    // number of fractions
+    @Param({"1", "4"})
+    private int fractions;
+
+    private final PostfixCalculator basic = new BasicPostfixCalculator(ExpressionState.LIMIT);
+    private final PostfixCalculator tiered = new TieredPostfixCalculator(ExpressionState.LIMIT);
+    private PostfixProgram program;
+    private PostfixProgram eliminated;
+
+    @Setup
+    public void setUp() {
+        String subexpression = "(" + new TCalcBench.Generator(length, length, 2, 18, mix).nextValid() + ")";
+        StringBuilder infix = new StringBuilder();
+        for (int i = 1; i <= fractions; i++) {
+            infix.append(i == 1 ? "" : "+").append(subexpression).append("/(").append(subexpression)
+                    .append('+').append(i).append(')');
+        }
+        program = new ShuntingYard().compile(infix.toString());
+        eliminated = new CommonSubexpressionEliminator().eliminate(program).getProgram();
+    }
+
+    @Benchmark
+    public BigDecimal basic() {
+        return basic.calculate(program);
+    }
+
+    @Benchmark
+    public BigDecimal basicEliminated() {
+        return basic.calculate(eliminated);
+    }
+
+    @Benchmark
+    public BigDecimal tiered() {
+        return tiered.calculate(program);
+    }
+
+    @Benchmark
+    public BigDecimal tieredEliminated() {
+        return tiered.calculate(eliminated);
+    }
+}
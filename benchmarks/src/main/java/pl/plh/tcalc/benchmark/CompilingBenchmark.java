@@ -0,0 +1,46 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Calculation of a hot formula with variables, interpreted and compiled to a tree of method handles.
+// Run with: java -jar target/benchmarks.jar CompilingBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompilingBenchmark {
+    @Param({"price*(1-discount)*qty+shipping", "(a*x+b)*x+c", "max(a;b)/(a+b)*100"})
+    private String formula;
+
+    private final BasicPostfixCalculator basic = new BasicPostfixCalculator(ExpressionState.LIMIT);
+    private final PostfixCalculator compiling = new CompilingPostfixCalculator(
+            new BasicPostfixCalculator(ExpressionState.LIMIT), 1, 16);
+    private PostfixProgram program;
+    private BigDecimal[] arguments;
+
+    @Setup
+    public void setUp() {
+        program = new ShuntingYard().compile(formula);
+        arguments = new BigDecimal[program.getVariableCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = BigDecimal.valueOf(1250 + 17 * i, 2);
+        }
+        compiling.calculate(program, arguments);
+    }
+
+    @Benchmark
+    public BigDecimal basic() {
+        return basic.calculate(program, arguments);
+    }
+
+    @Benchmark
+    public BigDecimal compiled() {
+        return compiling.calculate(program, arguments);
+    }
+}
@@ -0,0 +1,30 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.InfixPostfixConverter;
+import pl.plh.tcalc.processor.PostfixProgram;
+import pl.plh.tcalc.processor.ShuntingYard;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The infix to postfix stage
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConvertBenchmark {
+    private final InfixPostfixConverter converter = new ShuntingYard();
+
+    @Benchmark
+    public List<String> convert(ExpressionState expression) {
+        return converter.convert(expression.infix);
+    }
+
+    @Benchmark
+    public PostfixProgram compile(ExpressionState expression) {
+        return converter.compile(expression.infix);
+    }
+}
@@ -0,0 +1,45 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.TCalcBench;
+import pl.plh.tcalc.processor.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+// An expression shared by benchmarks of all pipeline stages, with its intermediate forms.
+// Narrow the parameter space with -p, for example: -p mix=div -p digits=70
+@State(Scope.Thread)
+public class ExpressionState {
+    public static final int LIMIT = 70;
+
+    // number of literals
+    @Param({"4", "64"})
+    public int length;
+
+    // number of nested brackets
+    @Param({"0", "8"})
+    public int depth;
+
+    // add, mul, div or mixed
+    @Param({"add", "mixed", "div"})
+    public String mix;
+
+    // digits of every literal
+    @Param({"2", "18", "70"})
+    public int digits;
+
+    public String infix;
+    public List<String> postfix;
+    public PostfixProgram program;
+    public BigDecimal result;
+
+    @Setup
+    public void setUp() {
+        infix = new TCalcBench.Generator(length * 31L + depth, length, depth, digits, mix).nextValid();
+        ShuntingYard converter = new ShuntingYard();
+        postfix = converter.convert(infix);
+        program = converter.compile(infix);
+        result = new BasicPostfixCalculator(LIMIT).calculate(program);
+    }
+}
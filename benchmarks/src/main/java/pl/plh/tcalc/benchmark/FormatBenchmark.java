@@ -0,0 +1,32 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.ResultFormatter;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// The result formatting stage
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+    private final ResultFormatter formatter = new ResultFormatter();
+    private final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    private final StringBuilder output = new StringBuilder();
+
+    @Benchmark
+    public String format(ExpressionState expression) {
+        return formatter.format(expression.result, ExpressionState.LIMIT);
+    }
+
+    // into a reused buffer, as batch output does
+    @Benchmark
+    public StringBuilder formatInto(ExpressionState expression) {
+        output.setLength(0);
+        return formatter.format(expression.result, ExpressionState.LIMIT, locale, output);
+    }
+}
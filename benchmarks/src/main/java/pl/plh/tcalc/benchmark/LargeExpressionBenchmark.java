@@ -0,0 +1,45 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.TCalcBench;
+import pl.plh.tcalc.processor.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+// Sequential and reassociated parallel calculation of long chains of additions or multiplications.
+// Run with: java -jar target/benchmarks.jar LargeExpressionBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LargeExpressionBenchmark {
+    // number of literals
+    @Param({"1000", "100000"})
+    private int length;
+
+    // add or mul
+    @Param({"add", "mul"})
+    private String mix;
+
+    private final PostfixCalculator basic = new BasicPostfixCalculator(ExpressionState.LIMIT);
+    private final PostfixCalculator parallel = new ParallelPostfixCalculator(ExpressionState.LIMIT);
+    private PostfixProgram program;
+
+    @Setup
+    public void setUp() {
+        program = new ShuntingYard().compile(new TCalcBench.Generator(length, length, 0, 18, mix).nextValid());
+    }
+
+    @Benchmark
+    public BigDecimal basic() {
+        return basic.calculate(program);
+    }
+
+    @Benchmark
+    public BigDecimal parallel() {
+        return parallel.calculate(program);
+    }
+}
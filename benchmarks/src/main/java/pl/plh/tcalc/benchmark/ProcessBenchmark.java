@@ -0,0 +1,30 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.*;
+
+import java.util.concurrent.TimeUnit;
+
+// The whole pipeline: conversion, calculation and formatting
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessBenchmark {
+    private final Processor basic =
+            new Processor(new ShuntingYard(), new BasicPostfixCalculator(ExpressionState.LIMIT));
+    private final Processor tiered =
+            new Processor(new ShuntingYard(), new TieredPostfixCalculator(ExpressionState.LIMIT));
+
+    @Benchmark
+    public String basic(ExpressionState expression) {
+        return basic.process(expression.infix);
+    }
+
+    @Benchmark
+    public String tiered(ExpressionState expression) {
+        return tiered.process(expression.infix);
+    }
+}
@@ -0,0 +1,69 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.TCalcBench;
+import pl.plh.tcalc.processor.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Warm start of a library of generated formulas: parsing all of them again
+// and loading all of them from a memory-mapped ProgramLibrary.
+// Run with: java -jar target/benchmarks.jar ProgramLibraryBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgramLibraryBenchmark {
+    @Param({"10000", "50000"})
+    private int formulas;
+
+    // literals of every formula
+    @Param({"16"})
+    private int length;
+
+    private final ShuntingYard converter = new ShuntingYard();
+    private String[] infixes;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        TCalcBench.Generator generator = new TCalcBench.Generator(formulas, length, 2, 6, "mixed");
+        infixes = new String[formulas];
+        file = Files.createTempFile("tcalc", ".tcl");
+        try (ProgramLibraryWriter writer = new ProgramLibraryWriter(file)) {
+            for (int i = 0; i < formulas; i++) {
+                infixes[i] = generator.nextValid();
+                writer.write(converter.compile(infixes[i]));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public PostfixProgram[] parse() {
+        PostfixProgram[] programs = new PostfixProgram[formulas];
+        for (int i = 0; i < formulas; i++) {
+            programs[i] = converter.compile(infixes[i]);
+        }
+        return programs;
+    }
+
+    @Benchmark
+    public PostfixProgram[] load() throws IOException {
+        ProgramLibrary library = ProgramLibrary.open(file);
+        PostfixProgram[] programs = new PostfixProgram[formulas];
+        for (int i = 0; i < formulas; i++) {
+            programs[i] = library.get(i);
+        }
+        return programs;
+    }
+}
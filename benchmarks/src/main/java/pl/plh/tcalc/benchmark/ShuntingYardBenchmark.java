@@ -0,0 +1,54 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.InfixPostfixConverter;
+import pl.plh.tcalc.processor.ShuntingYard;
+
+import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compares the hand-written lexer of ShuntingYard with the original Scanner based converter.
+// Run with: java -jar target/benchmarks.jar ShuntingYardBenchmark
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShuntingYardBenchmark {
+    private static final char DS = new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator();
+
+    @Param({"short", "long", "nested"})
+    private String shape;
+
+    private String infix;
+    private InfixPostfixConverter lexerConverter;
+    private InfixPostfixConverter scannerConverter;
+
+    @Setup
+    public void setUp() {
+        switch (shape) {
+            case "short":
+                infix = "2+3*4";
+                break;
+            case "long":
+                infix = "1-2*3+4/5+6/8-9*10+11 + 12" + DS + "5 * (7 - 3" + DS + "25) / 4 - 100 + 2 * 3 * 4 * 5";
+                break;
+            default:
+                infix = "((1+2)+(3-4)*(5+6))*((1+2)/(4-8)-(-(5+6)))/100";
+        }
+        lexerConverter = new ShuntingYard();
+        scannerConverter = new ScannerShuntingYard();
+    }
+
+    @Benchmark
+    public List<String> lexer() {
+        return lexerConverter.convert(infix);
+    }
+
+    @Benchmark
+    public List<String> scanner() {
+        return scannerConverter.convert(infix);
+    }
+}
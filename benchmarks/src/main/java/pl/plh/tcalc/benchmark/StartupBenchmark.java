@@ -0,0 +1,61 @@
+package pl.plh.tcalc.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pl.plh.tcalc.processor.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time to the first result of a fresh JVM, as paid by every call of tcalc -e from a script.
+// Every fork measures a single call: firstResult() in the forked JVM, so only the classes of the pipeline
+// are cold, and launch() of another JVM running tcalc -e, so JVM startup is included.
+// Run with: java -jar target/benchmarks.jar StartupBenchmark
+// With an AppCDS archive of tcalc classes: -p jvmOptions=-XX:SharedArchiveFile=<archive>
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final String EXPRESSION = "(1+2)*3/7";
+
+    // options of the launched JVM separated by spaces
+    @Param({"-Xshare:auto"})
+    private String jvmOptions;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() {
+        command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.asList(jvmOptions.trim().split(" +")));
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "pl.plh.tcalc.TCalcRunner",
+                "-e", EXPRESSION));
+    }
+
+    @Benchmark
+    public String firstResult() {
+        return new Processor(new ShuntingYard(), new TieredPostfixCalculator()).process(EXPRESSION);
+    }
+
+    @Benchmark
+    public String launch() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            result = in.readLine();
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("tcalc -e failed: " + result);
+        }
+        return result;
+    }
+}
@@ -1,8 +1,9 @@
 package pl.plh.tcalc;
 
-import pl.plh.tcalc.processor.BasicPostfixCalculator;
 import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.Session;
 import pl.plh.tcalc.processor.ShuntingYard;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
 
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -11,11 +12,14 @@ public class TCalc {
     private static final String INTRO =
         "\nTCalc - simple terminal processor\n" +
         "Program calculates values of arithmetic expressions given in the infix form,\n" +
-        "for example: 2+3*4, (2+3)*4, ((1+2)/(3*4))-456, etc. It executes 4 basic\n" +
-        "operations: +, -, * and /. Results over 70 digits are rounded.\n";
+        "for example: 2+3*4, (2+3)*4, ((1+2)/(3*4))-456, 2^10, sqrt(2)*max(1;abs(-3)), etc.\n" +
+        "Operators: +, -, *, / and ^ (power), functions: sqrt, ln, exp, abs, min and max,\n" +
+        "arguments of min and max are separated by ;. Results over 70 digits are rounded.\n" +
+        "Results may be named, e.g. a = 2/3, and used later: b = a*a + 1, the last one is ans.\n" +
+        "Redefining a name recomputes results which use it.\n";
     private static final Pattern ESCAPE_PATTERN = Pattern.compile("(?i:q|quit)?");
 
-    private final Processor calc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+    private final Session session = new Session(new Processor(new ShuntingYard(), new TieredPostfixCalculator()));
     private final Scanner scan = new Scanner(System.in);
 
     public void run() {
@@ -31,7 +35,10 @@ public class TCalc {
                 System.out.println("Goodbye!");
                 break;
             }
-            System.out.println("= " + calc.process(line));
+            System.out.println("= " + session.execute(line));
+            for (String name : session.getRecomputed()) {
+                System.out.println("  " + name + " = " + session.getResult(name));
+            }
         }
     }
 }
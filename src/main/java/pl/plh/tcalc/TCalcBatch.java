@@ -0,0 +1,178 @@
+package pl.plh.tcalc;
+
+import pl.plh.tcalc.processor.Processor;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Non-interactive mode: evaluates a stream of expressions, one per line,
+// and writes results one per line in the same order without any prompts.
+// Blank lines have empty results, so line numbers of results match line numbers of expressions.
+// Expressions are streamed, so memory use does not depend on the input size.
+public class TCalcBatch {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CHUNK_SIZE = 256;
+
+    private final Processor processor;
+    private final int threads;
+
+    // threads - number of threads evaluating chunks of expressions in parallel, 1 means no parallelism
+    public TCalcBatch(Processor processor, int threads) {
+        checkNotNull(processor);
+        checkMin(threads, 1);
+        this.processor = processor;
+        this.threads = threads;
+    }
+
+    public void run(Iterator<String> expressions, Writer output) throws IOException {
+        checkNotNull(expressions);
+        BufferedWriter out = new BufferedWriter(output, BUFFER_SIZE);
+        try {
+            if (threads == 1) {
+                while (expressions.hasNext()) {
+                    String expression = expressions.next();
+                    write(out, expression.trim().isEmpty() ? "" : processor.process(expression));
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "tcalc-batch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                try {
+                    processor.processAll(expressions, result -> write(out, result), executor, 4 * threads,
+                            CHUNK_SIZE);
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    // Returns lines of a reader, the reader is not closed
+    public static Iterator<String> lines(Reader input) {
+        BufferedReader in = new BufferedReader(input, BUFFER_SIZE);
+        return new Iterator<String>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = in.readLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+
+    private static void write(BufferedWriter out, String result) {
+        try {
+            out.write(result);
+            out.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Lines of a file read through a window of the file mapped into memory.
+    // Expressions consist of ASCII chars, so bytes are decoded as ISO-8859-1 without any charset decoder.
+    public static final class MappedLines implements Iterator<String>, Closeable {
+        private static final int WINDOW_SIZE = 1 << 26;
+
+        private final FileChannel channel;
+        private final long size;
+        private final int windowSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private byte[] line = new byte[256];
+
+        public MappedLines(Path file) throws IOException {
+            this(file, WINDOW_SIZE);
+        }
+
+        // windowSize - bytes mapped at a time, small windows make lines cross window boundaries in tests
+        MappedLines(Path file, int windowSize) throws IOException {
+            checkNotNull(file);
+            checkMin(windowSize, 1);
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < size;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int length = 0;
+            while (position < size) {
+                if (window == null || position - windowStart >= window.limit()) {
+                    map();
+                }
+                byte b = window.get((int) (position++ - windowStart));
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+
+        // maps the next window starting at the current position, the previous one is released by GC
+        private void map() {
+            try {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package pl.plh.tcalc;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import pl.plh.tcalc.processor.MetricsSnapshot;
+import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.ProcessorMetrics;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Load generator for soak tests of a build: drives Processor.process(String) from several threads
+// for a fixed time and reports throughput, latency percentiles, allocation and GC pauses.
+// Every thread records latencies of its calls in its own histogram with sub-buckets of 1/32 of a power of two,
+// so percentiles are accurate to about 3%, not to the factor of two of the processor metrics.
+// Expressions are generated before the run, so the generation is not measured. Every thread goes through
+// all of them from its own starting point. The measured run follows a warm-up run of the same load.
+public class TCalcBench {
+    private final Processor processor;
+    private final ProcessorMetrics metrics;
+    private final int threads;
+
+    // The processor has to collect metrics, they are the source of numbers of results and errors
+    public TCalcBench(Processor processor, int threads) {
+        checkNotNull(processor);
+        checkMin(threads, 1);
+        if (processor.getMetrics() == null) {
+            throw new IllegalArgumentException("processor without metrics");
+        }
+        this.processor = processor;
+        this.metrics = processor.getMetrics();
+        this.threads = threads;
+    }
+
+    public Report run(String[] expressions, long warmUp, long duration, TimeUnit unit) throws InterruptedException {
+        checkNotNull(expressions);
+        checkNotNull(unit);
+        checkMin(expressions.length, 1);
+        drive(expressions, unit.toNanos(warmUp), new Latencies());
+        metrics.reset();
+        GcListener gc = new GcListener();
+        gc.start();
+        long start = System.nanoTime();
+        Latencies latencies = new Latencies();
+        long bytes;
+        try {
+            bytes = drive(expressions, unit.toNanos(duration), latencies);
+        } catch (InterruptedException e) {
+            gc.stop();
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        return new Report(threads, nanos, latencies, bytes, metrics.snapshot(), gc.stop());
+    }
+
+    // Adds latencies of processed expressions to the given ones and returns a number of bytes allocated
+    // by the threads or -1 if allocation is not measured by the JVM
+    private long drive(String[] expressions, long nanos, Latencies latencies) throws InterruptedException {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled()
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        AtomicLong allocated = new AtomicLong();
+        long deadline = System.nanoTime() + nanos;
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int first = (int) ((long) expressions.length * t / threads);
+            Thread worker = new Thread(() -> {
+                long id = Thread.currentThread().getId();
+                long bytes = allocationBean == null ? 0 : allocationBean.getThreadAllocatedBytes(id);
+                Latencies own = new Latencies();
+                int i = first;
+                long now = System.nanoTime();
+                while (now < deadline) {
+                    processor.process(expressions[i]);
+                    long end = System.nanoTime();
+                    own.record(end - now);
+                    now = end;
+                    if (++i == expressions.length) {
+                        i = 0;
+                    }
+                }
+                if (allocationBean != null) {
+                    allocated.addAndGet(allocationBean.getThreadAllocatedBytes(id) - bytes);
+                }
+                synchronized (latencies) {
+                    latencies.add(own);
+                }
+            }, "tcalc-bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return allocationBean == null ? -1 : allocated.get();
+    }
+
+    // Histogram of latencies in nanoseconds for a single thread. Values below 64 have their own buckets,
+    // larger ones fall into 32 buckets for every power of two, so a bucket spans at most 1/32 of its values.
+    static final class Latencies {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] buckets = new long[(Long.SIZE - SUB_BITS) * SUB_BUCKETS];
+        private long count;
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets[indexOf(value)]++;
+            count++;
+            total += value;
+            max = Math.max(max, value);
+        }
+
+        void add(Latencies other) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMeanNanos() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        long getMaxNanos() {
+            return max;
+        }
+
+        // Returns the upper bound of the bucket of the percentile, but never more than the maximum,
+        // percentile is in range (0, 100]
+        long getPercentileNanos(double percentile) {
+            if (!(percentile > 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("percentile out of range: " + percentile);
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return 0;
+        }
+
+        private static int indexOf(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            // value >>> shift has SUB_BITS + 1 bits, the highest one is implied by shift
+            int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        private static long upperBoundOf(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long top = index % SUB_BUCKETS + SUB_BUCKETS;
+            return shift == Long.SIZE - SUB_BITS - 2 && top == 2 * SUB_BUCKETS - 1 ? Long.MAX_VALUE
+                                                                                   : ((top + 1) << shift) - 1;
+        }
+    }
+
+    // Counts collections of every collector between start() and stop() and the longest one of them.
+    // Counts and times come from the collector beans, durations of single collections from their
+    // notifications, which may come late, so the longest collection is a lower bound.
+    private static final class GcListener implements NotificationListener {
+        private final List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        private final long[] counts = new long[beans.size()];
+        private final long[] millis = new long[beans.size()];
+        private final Map<String, LongAccumulator> maxMillis = new HashMap<>();
+
+        void start() {
+            for (int i = 0; i < beans.size(); i++) {
+                GarbageCollectorMXBean bean = beans.get(i);
+                maxMillis.put(bean.getName(), new LongAccumulator(Math::max, 0));
+                if (bean instanceof NotificationEmitter) {
+                    ((NotificationEmitter) bean).addNotificationListener(this, null, null);
+                }
+                counts[i] = bean.getCollectionCount();
+                millis[i] = bean.getCollectionTime();
+            }
+        }
+
+        List<GcStats> stop() {
+            List<GcStats> collectors = new ArrayList<>(beans.size());
+            for (int i = 0; i < beans.size(); i++) {
+                GarbageCollectorMXBean bean = beans.get(i);
+                collectors.add(new GcStats(bean.getName(), bean.getCollectionCount() - counts[i],
+                        bean.getCollectionTime() - millis[i], maxMillis.get(bean.getName()).get()));
+                if (bean instanceof NotificationEmitter) {
+                    try {
+                        ((NotificationEmitter) bean).removeNotificationListener(this);
+                    } catch (ListenerNotFoundException e) {
+                        // not added
+                    }
+                }
+            }
+            return collectors;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            LongAccumulator max = maxMillis.get(info.getGcName());
+            if (max != null) {
+                max.accumulate(info.getGcInfo().getDuration());
+            }
+        }
+    }
+
+    // Collections of a single collector during the measured run, times are in milliseconds.
+    // Collectors working concurrently with the application report their cycles, not only pauses.
+    public static final class GcStats {
+        private final String name;
+        private final long count;
+        private final long totalMillis;
+        private final long maxMillis;
+
+        GcStats(String name, long count, long totalMillis, long maxMillis) {
+            this.name = name;
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$s: %2$d collections, total %3$d ms, max %4$d ms",
+                    name, count, totalMillis, maxMillis);
+        }
+    }
+
+    public static final class Report {
+        private final int threads;
+        private final long nanos;
+        private final Latencies latencies;
+        private final long allocatedBytes;
+        private final MetricsSnapshot metrics;
+        private final List<GcStats> collectors;
+
+        Report(int threads, long nanos, Latencies latencies, long allocatedBytes, MetricsSnapshot metrics,
+               List<GcStats> collectors) {
+            this.threads = threads;
+            this.nanos = nanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+            this.metrics = metrics;
+            this.collectors = collectors;
+        }
+
+        public long getExpressionCount() {
+            return latencies.getCount();
+        }
+
+        public double getThroughput() {
+            return getExpressionCount() * 1e9 / nanos;
+        }
+
+        public long getMeanLatencyNanos() {
+            return latencies.getMeanNanos();
+        }
+
+        public long getMaxLatencyNanos() {
+            return latencies.getMaxNanos();
+        }
+
+        // Latency of a call of Processor.process(String) measured by the load generator, accurate to about 3%,
+        // percentile is in range (0, 100]
+        public long getLatencyNanos(double percentile) {
+            return latencies.getPercentileNanos(percentile);
+        }
+
+        // Returns -1 if allocation is not measured by the JVM
+        public long getAllocatedBytesPerExpression() {
+            long expressions = getExpressionCount();
+            return allocatedBytes < 0 || expressions == 0 ? -1 : allocatedBytes / expressions;
+        }
+
+        // Latencies and numbers of results and errors of the measured run
+        public MetricsSnapshot getMetrics() {
+            return metrics;
+        }
+
+        public List<GcStats> getCollectors() {
+            return collectors;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("threads     %1$d, %2$.1f s%n", threads, nanos / 1e9));
+            report.append(String.format("processed   %1$d expressions: %2$d results, %3$d parse errors, "
+                            + "%4$d arithmetic errors, %5$d unexpected errors%n", getExpressionCount(),
+                    metrics.getSuccessCount(), metrics.getParseErrorCount(), metrics.getArithmeticErrorCount(),
+                    metrics.getUnexpectedErrorCount()));
+            report.append(String.format("throughput  %1$.0f expressions/s%n", getThroughput()));
+            report.append(String.format(
+                    "latency     mean=%1$dns, p50=%2$dns, p99=%3$dns, p999=%4$dns, max=%5$dns%n", getMeanLatencyNanos(),
+                    getLatencyNanos(50), getLatencyNanos(99), getLatencyNanos(99.9), getMaxLatencyNanos()));
+            long bytes = getAllocatedBytesPerExpression();
+            report.append(String.format("allocated   %1$s%n",
+                    bytes < 0 ? "not measured" : bytes + " bytes/expression"));
+            for (GcStats collector : collectors) {
+                report.append(String.format("gc          %1$s%n", collector));
+            }
+            return report.toString();
+        }
+    }
+
+    // Generates reproducible expressions of the given shape, valid ones and ones malformed on purpose.
+    // Literals use the decimal separator of the default format locale, so ShuntingYard accepts them.
+    public static final class Generator {
+        private static final String[] MIXES = {"add", "mul", "div", "mixed"};
+
+        private final Random random;
+        private final int length;
+        private final int depth;
+        private final int digits;
+        private final String mix;
+        private final char decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+
+        // length - number of literals, at least 1
+        // depth - number of nested brackets, the innermost ones hold the remaining literals
+        // digits - number of digits of every literal, literals over 2 digits are decimals
+        // mix - operators: "add" (+ -), "mul" (*), "div" (/) or "mixed" (+ - * /)
+        public Generator(long seed, int length, int depth, int digits, String mix) {
+            checkMin(length, 1);
+            checkMin(depth, 0);
+            checkMin(digits, 1);
+            checkNotNull(mix);
+            boolean known = false;
+            for (String m : MIXES) {
+                known |= m.equals(mix);
+            }
+            if (!known) {
+                throw new IllegalArgumentException("incorrect operator mix: " + mix);
+            }
+            this.random = new Random(seed);
+            this.length = length;
+            this.depth = depth;
+            this.digits = digits;
+            this.mix = mix;
+        }
+
+        // invalidPercent - percent of malformed expressions, in range [0, 100]
+        public String[] generate(int count, int invalidPercent) {
+            if (invalidPercent < 0 || invalidPercent > 100) {
+                throw new IllegalArgumentException("percent out of range: " + invalidPercent);
+            }
+            String[] expressions = new String[count];
+            for (int i = 0; i < count; i++) {
+                expressions[i] = random.nextInt(100) < invalidPercent ? nextInvalid() : nextValid();
+            }
+            return expressions;
+        }
+
+        public String nextValid() {
+            StringBuilder infix = new StringBuilder();
+            int nesting = Math.min(depth, length - 1);
+            for (int i = 0; i < nesting; i++) {
+                appendLiteral(infix);
+                infix.append(operator()).append('(');
+            }
+            appendLiteral(infix);
+            for (int i = nesting + 1; i < length; i++) {
+                infix.append(operator());
+                appendLiteral(infix);
+            }
+            for (int i = 0; i < nesting; i++) {
+                infix.append(')');
+            }
+            return infix.toString();
+        }
+
+        // A valid expression with a missing operand, an unmatched bracket or a separator outside a function
+        public String nextInvalid() {
+            StringBuilder infix = new StringBuilder(nextValid());
+            int at = random.nextInt(infix.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    infix.insert(at, "*/");
+                    break;
+                case 1:
+                    infix.insert(at, random.nextBoolean() ? '(' : ')');
+                    break;
+                default:
+                    infix.insert(at, ';');
+            }
+            return infix.toString();
+        }
+
+        private char operator() {
+            switch (mix) {
+                case "add":
+                    return random.nextBoolean() ? '+' : '-';
+                case "mul":
+                    return '*';
+                case "div":
+                    return '/';
+                default:
+                    return "+-*/".charAt(random.nextInt(4));
+            }
+        }
+
+        // literals never start with 0, so they are never zero and divisions of valid expressions never fail
+        private void appendLiteral(StringBuilder infix) {
+            int integerDigits = digits > 2 ? digits / 2 : digits;
+            infix.append((char) ('1' + random.nextInt(9)));
+            for (int i = 1; i < digits; i++) {
+                if (i == integerDigits) {
+                    infix.append(decimalSeparator);
+                }
+                infix.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+    }
+}
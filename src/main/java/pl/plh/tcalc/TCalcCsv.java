@@ -0,0 +1,109 @@
+package pl.plh.tcalc;
+
+import pl.plh.tcalc.processor.CompiledExpression;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+// Evaluates one compiled expression for every row of a CSV stream.
+// The first row is a header with column names which are bound to variables of the expression,
+// columns that are not used by the expression are ignored.
+// Values are decimals in the standard java form with '.' as a decimal point, separated by ','.
+// Results are written one per line in order of rows, straight into the output.
+public class TCalcCsv {
+    private static final String INCORRECT_ROW = "incorrect row";
+
+    private final CompiledExpression expression;
+
+    public TCalcCsv(CompiledExpression expression) {
+        GenericValidator.checkNotNull(expression);
+        this.expression = expression;
+    }
+
+    // Throws IllegalArgumentException if a variable of the expression has no column
+    public void run(Reader input, Writer output) throws IOException {
+        BufferedReader in = new BufferedReader(input, 1 << 16);
+        BufferedWriter out = new BufferedWriter(output, 1 << 16);
+        String header = in.readLine();
+        if (header == null) {
+            return;
+        }
+        int[] columnIndexes = columnIndexes(split(header, Integer.MAX_VALUE));
+        int width = 0;
+        for (int index : columnIndexes) {
+            width = Math.max(width, index + 1);
+        }
+        // an expression without variables has a single result for all rows
+        String constant = columnIndexes.length == 0 ? expression.evaluate() : null;
+        BigDecimal[] arguments = new BigDecimal[columnIndexes.length];
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            if (!parseRow(split(line, width), columnIndexes, arguments)) {
+                out.write(INCORRECT_ROW);
+            } else if (constant != null) {
+                out.write(constant);
+            } else {
+                expression.evaluateTo(out, arguments);
+            }
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    private int[] columnIndexes(String[] names) {
+        List<String> header = Arrays.asList(names);
+        List<String> variables = expression.getVariables();
+        int[] indexes = new int[variables.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = header.indexOf(variables.get(i));
+            if (indexes[i] < 0) {
+                throw new IllegalArgumentException("missing column of " + variables.get(i));
+            }
+        }
+        return indexes;
+    }
+
+    private static boolean parseRow(String[] fields, int[] columnIndexes, BigDecimal[] arguments) {
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (columnIndexes[i] >= fields.length) {
+                return false;
+            }
+            try {
+                arguments[i] = new BigDecimal(fields[columnIndexes[i]]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Splits a line by ',' into at most limit trimmed fields
+    private static String[] split(String line, int limit) {
+        String[] fields = new String[Math.min(limit, count(line, ',') + 1)];
+        int start = 0;
+        for (int i = 0; i < fields.length; i++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            fields[i] = line.substring(start, end).trim();
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    private static int count(String s, char c) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -1,7 +1,258 @@
 package pl.plh.tcalc;
 
+import pl.plh.tcalc.processor.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+
 public class TCalcRunner {
+    private static final int DEFAULT_PORT = 7531;
+    private static final int DEFAULT_MAX_LENGTH = 1 << 16;
+    private static final int BENCH_EXPRESSIONS = 1 << 14;
+    // other than 1 of usage and I/O errors
+    private static final int EXPRESSION_ERROR_STATUS = 2;
+    private static final String USAGE =
+        "Usage:\n" +
+        "  tcalc                              interactive mode\n" +
+        "  tcalc -e <expression> [-e <expression> ...]\n" +
+        "                                     evaluates the expressions, prints results one per line\n" +
+        "                                     and exits, with status " + EXPRESSION_ERROR_STATUS +
+        " if any expression\n" +
+        "                                     is incorrect or cannot be calculated\n" +
+        "  tcalc --csv <expression> [file]    evaluates the expression for every row of a CSV file\n" +
+        "                                     or of the standard input, variables are bound to columns\n" +
+        "  tcalc --batch [--parallel <threads>] [file]\n" +
+        "                                     evaluates expressions, one per line, of a file\n" +
+        "                                     or of the standard input and prints results one per line\n" +
+        "  tcalc --server [--port <port>] [--threads <threads>] [--max-length <bytes>]\n" +
+        "                                     evaluates expressions sent by lines over TCP connections\n" +
+        "                                     to the localhost port, default " + DEFAULT_PORT + "\n" +
+        "  tcalc --bench [--threads <threads>] [--duration <seconds>] [--warm-up <seconds>] [--seed <seed>]\n" +
+        "                [--length <literals>] [--depth <brackets>] [--digits <digits>]\n" +
+        "                [--mix add|mul|div|mixed] [--invalid <percent>]\n" +
+        "                                     drives the calculator with generated expressions and reports\n" +
+        "                                     throughput, latency, allocation and GC\n";
+
     public static void main(String[] args) {
-        new TCalc().run();
+        try {
+            if (args.length == 0) {
+                new TCalc().run();
+            } else if (args[0].equals("-e")) {
+                runExpressions(args);
+            } else if (args[0].equals("--csv") && (args.length == 2 || args.length == 3)) {
+                runCsv(args[1], args.length == 3 ? args[2] : null);
+            } else if (args[0].equals("--batch")) {
+                runBatch(args);
+            } else if (args[0].equals("--server")) {
+                runServer(args);
+            } else if (args[0].equals("--bench")) {
+                runBench(args);
+            } else {
+                exitWithUsage();
+            }
+        } catch (ParseException | IllegalArgumentException | IOException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    // One-shot mode for scripts, it pays only for the classes of a single conversion and calculation.
+    // Blank expressions have empty results, which are not errors.
+    private static void runExpressions(String[] args) throws IOException {
+        if (args.length % 2 != 0) {
+            exitWithUsage();
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].equals("-e")) {
+                exitWithUsage();
+            }
+        }
+        Processor processor = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out)));
+        boolean failed = false;
+        for (int i = 1; i < args.length; i += 2) {
+            if (!args[i].trim().isEmpty()) {
+                Result result = processor.evaluate(args[i]);
+                failed |= result.isError();
+                out.write(result.getText());
+            }
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+        if (failed) {
+            System.exit(EXPRESSION_ERROR_STATUS);
+        }
+    }
+
+    private static void runCsv(String expression, String file) throws IOException {
+        // the expression is compiled once and evaluated for every row, so optimizing it
+        // and eliminating its common subexpressions pays off
+        PostfixCalculator calculator = new TieredPostfixCalculator();
+        Processor processor = new Processor(new ShuntingYard(), new PostfixOptimizer(calculator, true), calculator,
+                null);
+        TCalcCsv csv = new TCalcCsv(processor.compile(expression));
+        Writer out = new OutputStreamWriter(System.out);
+        if (file == null) {
+            csv.run(new InputStreamReader(System.in), out);
+        } else {
+            try (Reader in = new FileReader(file)) {
+                csv.run(in, out);
+            }
+        }
+    }
+
+    private static void runBatch(String[] args) throws IOException {
+        int threads = 1;
+        String file = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--parallel") && i + 1 < args.length) {
+                threads = parseThreads(args[++i]);
+            } else if (file == null && !args[i].startsWith("--")) {
+                file = args[i];
+            } else {
+                exitWithUsage();
+            }
+        }
+        Processor processor = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+        TCalcBatch batch = new TCalcBatch(processor, threads);
+        // bypasses System.out, which is a PrintStream flushed and locked by every write
+        Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out));
+        if (file == null) {
+            batch.run(TCalcBatch.lines(new InputStreamReader(System.in)), out);
+        } else {
+            try (TCalcBatch.MappedLines lines = new TCalcBatch.MappedLines(Paths.get(file))) {
+                batch.run(lines, out);
+            }
+        }
+    }
+
+    private static void runServer(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxLength = DEFAULT_MAX_LENGTH;
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                exitWithUsage();
+            } else if (args[i].equals("--port")) {
+                port = parseNumber(args[++i], "port");
+            } else if (args[i].equals("--threads")) {
+                threads = parseThreads(args[++i]);
+            } else if (args[i].equals("--max-length")) {
+                maxLength = parseNumber(args[++i], "maximal length");
+            } else {
+                exitWithUsage();
+            }
+        }
+        ProcessorMetrics metrics = new ProcessorMetrics();
+        Processor processor = new Processor(new ShuntingYard(), null, new TieredPostfixCalculator(),
+                new ProcessorCache(1 << 12), metrics);
+        warmUp(processor);
+        processor.getCache().clear();
+        metrics.reset();
+        metrics.register("server");
+        TCalcServer server = new TCalcServer(processor, new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                threads, maxLength);
+        // results of requests received before a signal are still sent
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.shutdown(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        server.start();
+        System.err.println("tcalc server listening on " + server.getAddress());
+        server.awaitTermination();
+    }
+
+    private static void runBench(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int duration = 10;
+        int warmUp = 5;
+        long seed = 1;
+        int length = 16;
+        int depth = 2;
+        int digits = 6;
+        String mix = "mixed";
+        int invalid = 10;
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                exitWithUsage();
+            } else if (args[i].equals("--threads")) {
+                threads = parseThreads(args[++i]);
+            } else if (args[i].equals("--duration")) {
+                duration = parseNumber(args[++i], "duration");
+            } else if (args[i].equals("--warm-up")) {
+                warmUp = parseNumber(args[++i], "warm-up");
+            } else if (args[i].equals("--seed")) {
+                seed = parseLongNumber(args[++i], "seed");
+            } else if (args[i].equals("--length")) {
+                length = parseNumber(args[++i], "length");
+            } else if (args[i].equals("--depth")) {
+                depth = parseNumber(args[++i], "depth");
+            } else if (args[i].equals("--digits")) {
+                digits = parseNumber(args[++i], "number of digits");
+            } else if (args[i].equals("--mix")) {
+                mix = args[++i];
+            } else if (args[i].equals("--invalid")) {
+                invalid = parseNumber(args[++i], "percent");
+            } else {
+                exitWithUsage();
+            }
+        }
+        checkMin(duration, 1);
+        checkMin(warmUp, 0);
+        String[] expressions = new TCalcBench.Generator(seed, length, depth, digits, mix)
+                .generate(BENCH_EXPRESSIONS, invalid);
+        // no cache, every expression is processed from its infix
+        Processor processor = new Processor(new ShuntingYard(), null, new TieredPostfixCalculator(), null,
+                new ProcessorMetrics());
+        System.err.printf("warming up for %1$d s, measuring for %2$d s%n", warmUp, duration);
+        TCalcBench.Report report = new TCalcBench(processor, threads).run(expressions, warmUp, duration,
+                TimeUnit.SECONDS);
+        System.out.print(report);
+    }
+
+    // Gets hot paths of the pipeline compiled before the first request comes
+    private static void warmUp(Processor processor) {
+        for (int i = 0; i < 20000; i++) {
+            processor.process("(" + i + "+1/2)*3/7-" + i);
+        }
+    }
+
+    private static int parseThreads(String threads) {
+        try {
+            return Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("incorrect number of threads: " + threads);
+        }
+    }
+
+    private static int parseNumber(String number, String name) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("incorrect " + name + ": " + number);
+        }
+    }
+
+    private static long parseLongNumber(String number, String name) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("incorrect " + name + ": " + number);
+        }
+    }
+
+    private static void exitWithUsage() {
+        System.err.print(USAGE);
+        System.exit(1);
     }
 }
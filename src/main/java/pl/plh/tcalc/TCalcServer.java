@@ -0,0 +1,382 @@
+package pl.plh.tcalc;
+
+import pl.plh.tcalc.processor.Processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Server mode: evaluates expressions sent over TCP connections with a line based protocol.
+// Every line of a request is an expression and every line of a response is its result or a message
+// of an error, as in the batch mode. Clients may pipeline requests: send many lines without waiting,
+// results come back in the same order. Lines are UTF-8 and end with "\n" or "\r\n".
+// One selector thread does all the I/O of non-blocking channels, so thousands of idle connections
+// cost no threads. Expressions are evaluated by a pool of worker threads sharing one Processor,
+// at most one worker per connection at a time, which keeps results in order.
+// A line longer than the limit is answered with a message instead of being buffered.
+// A connection which does not read its results stops being read once too many are waiting.
+public final class TCalcServer implements Closeable {
+    static final String TOO_LONG_MESSAGE = "expression too long";
+    static final String INTERNAL_ERROR_MESSAGE = "internal error";
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    // thresholds of a connection over which it is not read until its results are written
+    private static final int MAX_PENDING_LINES = 1024;
+    private static final int MAX_OUTPUT_BYTES = 1 << 20;
+    // a marker of an overlong line in the queue of a connection, compared by identity
+    private static final String TOO_LONG = new String(TOO_LONG_MESSAGE);
+
+    private final Processor processor;
+    private final int maxExpressionLength;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    // connections with new results or idle workers, to be updated by the selector thread
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean stopping;
+
+    // address - usually a loopback address, port 0 binds to any free port (see getAddress())
+    // threads - number of threads evaluating expressions
+    // maxExpressionLength - maximal number of bytes of a line
+    public TCalcServer(Processor processor, InetSocketAddress address, int threads, int maxExpressionLength)
+            throws IOException {
+        checkNotNull(processor);
+        checkNotNull(address);
+        checkMin(threads, 1);
+        checkMin(maxExpressionLength, 1);
+        this.processor = processor;
+        this.maxExpressionLength = maxExpressionLength;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "tcalc-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selectorThread = new Thread(this::run, "tcalc-server");
+    }
+
+    // Returns the bound address with the actual port
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public void start() {
+        selectorThread.start();
+    }
+
+    // Stops accepting connections and reading requests, results of lines received so far are still sent.
+    // Connections are closed when their results are written, the rest is closed after the timeout.
+    // Returns true if all connections finished before the timeout
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        stopping = true;
+        selector.wakeup();
+        if (!selectorThread.isAlive() && terminated.getCount() > 0) {
+            // never started
+            release();
+            return true;
+        }
+        boolean finished = terminated.await(timeout, unit);
+        if (!finished) {
+            selectorThread.interrupt();
+            selector.wakeup();
+            terminated.await();
+        }
+        return finished;
+    }
+
+    // Waits until the server is shut down
+    public void awaitTermination() throws InterruptedException {
+        terminated.await();
+    }
+
+    // Shuts down without waiting for results
+    @Override
+    public void close() throws IOException {
+        try {
+            shutdown(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        Set<Connection> connections = new HashSet<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                if (stopping && serverChannel.isOpen()) {
+                    serverChannel.close();
+                    for (Connection connection : connections) {
+                        connection.inputClosed = true;
+                        ready.add(connection);
+                    }
+                }
+                for (Connection connection = ready.poll(); connection != null; connection = ready.poll()) {
+                    update(connection, connections);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        try {
+                            accept(connections);
+                        } catch (IOException e) {
+                            // e.g. too many open files, existing connections are still served
+                            System.err.println("tcalc server: " + e.getMessage());
+                        }
+                    } else if (key.isValid()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable() && !connection.inputClosed) {
+                            read(connection, readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                        update(connection, connections);
+                    }
+                }
+                if (stopping && connections.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("tcalc server: " + e.getMessage());
+        } finally {
+            for (Connection connection : connections) {
+                closeQuietly(connection.channel);
+            }
+            release();
+        }
+    }
+
+    private void release() {
+        closeQuietly(serverChannel);
+        closeQuietly(selector);
+        workers.shutdownNow();
+        terminated.countDown();
+    }
+
+    private void accept(Set<Connection> connections) throws IOException {
+        for (SocketChannel channel = serverChannel.accept(); channel != null; channel = serverChannel.accept()) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    // Splits received bytes into lines and schedules their evaluation
+    private void read(Connection connection, ByteBuffer buffer) {
+        int count;
+        try {
+            buffer.clear();
+            count = connection.channel.read(buffer);
+        } catch (IOException e) {
+            connection.failed = true;
+            return;
+        }
+        if (count < 0) {
+            connection.inputClosed = true;
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                lines.add(connection.takeLine());
+            } else {
+                connection.appendToLine(b, maxExpressionLength);
+            }
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        synchronized (connection) {
+            connection.pending.addAll(lines);
+            if (connection.scheduled) {
+                return;
+            }
+            connection.scheduled = true;
+        }
+        workers.execute(() -> evaluate(connection));
+    }
+
+    private void write(Connection connection) {
+        try {
+            synchronized (connection) {
+                connection.output.flip();
+                connection.channel.write(connection.output);
+                connection.output.compact();
+                if (connection.output.position() == 0 && connection.output.capacity() > READ_BUFFER_SIZE) {
+                    // a burst of results is not kept in memory of an idle connection
+                    connection.output = ByteBuffer.allocate(0);
+                }
+            }
+        } catch (IOException e) {
+            connection.failed = true;
+        }
+    }
+
+    // Sets interest operations of the connection or closes it when it is done
+    private void update(Connection connection, Set<Connection> connections) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        boolean idle;
+        int pendingLines;
+        int outputBytes;
+        synchronized (connection) {
+            idle = !connection.scheduled && connection.pending.isEmpty();
+            pendingLines = connection.pending.size();
+            outputBytes = connection.output.position();
+        }
+        if (connection.failed || (connection.inputClosed && idle && outputBytes == 0)) {
+            connections.remove(connection);
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+            return;
+        }
+        int operations = outputBytes > 0 ? SelectionKey.OP_WRITE : 0;
+        if (!connection.inputClosed && pendingLines < MAX_PENDING_LINES && outputBytes < MAX_OUTPUT_BYTES) {
+            operations |= SelectionKey.OP_READ;
+        }
+        connection.key.interestOps(operations);
+    }
+
+    // Runs on a worker thread until no lines of the connection are left
+    private void evaluate(Connection connection) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder results = new StringBuilder();
+        while (true) {
+            synchronized (connection) {
+                if (connection.pending.isEmpty()) {
+                    connection.scheduled = false;
+                    break;
+                }
+                lines.addAll(connection.pending);
+                connection.pending.clear();
+            }
+            for (String line : lines) {
+                results.append(result(line)).append('\n');
+            }
+            byte[] bytes = results.toString().getBytes(StandardCharsets.UTF_8);
+            synchronized (connection) {
+                connection.appendToOutput(bytes);
+            }
+            lines.clear();
+            results.setLength(0);
+            ready.add(connection);
+            selector.wakeup();
+        }
+        // the selector may be waiting for the worker to close the connection
+        ready.add(connection);
+        selector.wakeup();
+    }
+
+    private String result(String line) {
+        if (line == TOO_LONG) {
+            return TOO_LONG_MESSAGE;
+        }
+        if (line.trim().isEmpty()) {
+            return "";
+        }
+        try {
+            return processor.process(line);
+        } catch (RuntimeException e) {
+            return INTERNAL_ERROR_MESSAGE;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do about it
+        }
+    }
+
+    // State of a connection. Fields without synchronization are used by the selector thread only,
+    // the queue of lines, the output buffer and the scheduled flag are shared with workers.
+    private static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        // bytes of the current line, allocated and grown as needed
+        byte[] line = new byte[128];
+        int lineLength;
+        // the current line is over the limit, its bytes are skipped
+        boolean discarding;
+        boolean inputClosed;
+        boolean failed;
+        final Deque<String> pending = new ArrayDeque<>();
+        // a worker is evaluating lines of the connection
+        boolean scheduled;
+        // results in write mode
+        ByteBuffer output = ByteBuffer.allocate(0);
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void appendToLine(byte b, int maxLength) {
+            if (discarding) {
+                return;
+            }
+            if (lineLength == maxLength) {
+                discarding = true;
+                return;
+            }
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, Math.min(lineLength * 2, maxLength));
+            }
+            line[lineLength++] = b;
+        }
+
+        String takeLine() {
+            String taken;
+            if (discarding) {
+                taken = TOO_LONG;
+            } else {
+                int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                taken = new String(line, 0, length, StandardCharsets.UTF_8);
+            }
+            lineLength = 0;
+            discarding = false;
+            return taken;
+        }
+
+        void appendToOutput(byte[] bytes) {
+            if (output.remaining() < bytes.length) {
+                int capacity = Math.max(output.capacity() * 2, output.position() + bytes.length);
+                ByteBuffer grown = ByteBuffer.allocate(capacity);
+                output.flip();
+                grown.put(output);
+                output = grown;
+            }
+            output.put(bytes);
+        }
+    }
+}
@@ -2,23 +2,23 @@ package pl.plh.tcalc.processor;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.util.*;
-import java.util.function.BinaryOperator;
+import java.util.List;
 
 import static java.math.RoundingMode.HALF_UP;
 import static pl.plh.tcalc.GenericValidator.*;
 
 public class BasicPostfixCalculator implements PostfixCalculator {
+    // guard digits of a calculator with exact additions, subtractions and multiplications
+    public static final int EXACT = -1;
+    // maximal precision of a calculator without a cap on intermediate values
+    public static final int UNCAPPED = Integer.MAX_VALUE;
+
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+
     private final MathContext mathContext;
-    private final Map<String, BinaryOperator<BigDecimal>> operators = Collections.unmodifiableMap(
-        new HashMap<String, BinaryOperator<BigDecimal>>() {
-            {
-                put("+", (x1, x2) -> x1.add(x2));
-                put("-", (x1, x2) -> x1.subtract(x2));
-                put("*", (x1, x2) -> x1.multiply(x2));
-                put("/", (x1, x2) -> divide(x1, x2));
-            }
-        });
+    // null in the exact mode
+    private final MathContext guardedContext;
+    private final int maxPrecision;
 
     // Limit value is used as:
     // - precision of division,
@@ -26,8 +26,30 @@ public class BasicPostfixCalculator implements PostfixCalculator {
     // Values over limit are rounded with the round half up rule.
     // Default limit is 70
     public BasicPostfixCalculator(int limit) {
+        this(limit, EXACT, UNCAPPED);
+    }
+
+    // guardDigits - EXACT or a number of digits over limit kept by every operation
+    // In the exact mode only divisions are rounded (to limit digits), so long chains of multiplications
+    // make intermediate values grow without bound.
+    // In the guarded mode every operation is rounded to limit + guardDigits digits. Each rounding
+    // makes a relative error of at most u = 0.5 * 10^(1 - limit - guardDigits), so a result of n operations
+    // without cancelling additions or subtractions has a relative error of at most about n * u before
+    // the final rounding. It is below half a unit of the last digit of the result as long as
+    // n < 10^(guardDigits - 1), so results differ from correctly rounded ones by at most one unit
+    // in the last place.
+    // maxPrecision - UNCAPPED or a maximal number of digits of literals, arguments and intermediate values,
+    // at least limit + guardDigits; an operation which would exceed it throws ArithmeticException
+    // before its result is computed, so the cost of a single operation is bounded.
+    public BasicPostfixCalculator(int limit, int guardDigits, int maxPrecision) {
         checkMin(limit, 1);
+        if (guardDigits != EXACT) {
+            checkMin(guardDigits, 0);
+        }
         this.mathContext = new MathContext(limit, HALF_UP);
+        this.guardedContext = guardDigits == EXACT ? null : new MathContext(limit + guardDigits, HALF_UP);
+        checkMin(maxPrecision, getOperationPrecision());
+        this.maxPrecision = maxPrecision;
     }
 
     public BasicPostfixCalculator() {
@@ -39,22 +61,45 @@ public class BasicPostfixCalculator implements PostfixCalculator {
     @Override
     public BigDecimal calculate(List<String> postfix) {
         checkNotNull(postfix);
-        Deque<BigDecimal> stack = new ArrayDeque<>();
-        Iterator<String> it = postfix.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (operators.containsKey(token)) {
-                BigDecimal arg2 = stack.pop();
-                BigDecimal arg1 = stack.pop();
-                stack.push(operators.get(token).apply(arg1, arg2));
+        return calculate(PostfixProgram.of(postfix));
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, NO_ARGUMENTS);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        BigDecimal[] registers = program.getRegisterCount() == 0 ? NO_ARGUMENTS
+                                                                : new BigDecimal[program.getRegisterCount()];
+        return resume(program, arguments, new BigDecimal[program.getMaxStackDepth()], -1, registers, 0);
+    }
+
+    // Continues a calculation of the program from the operation of the given index
+    // with values of the stack up to the top index and registers stored so far already computed
+    BigDecimal resume(PostfixProgram program, BigDecimal[] arguments, BigDecimal[] stack, int top,
+                      BigDecimal[] registers, int from) {
+        for (int i = from; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            if (opcode == Opcode.PUSH) {
+                stack[++top] = checkPrecision(program.getConstant(program.getOperand(i)));
+            } else if (opcode == Opcode.LOAD) {
+                stack[++top] = checkPrecision(arguments[program.getOperand(i)]);
+            } else if (opcode == Opcode.STORE) {
+                registers[program.getOperand(i)] = stack[top];
+            } else if (opcode == Opcode.RECALL) {
+                stack[++top] = registers[program.getOperand(i)];
+            } else if (opcode.getArity() == 1) {
+                stack[top] = applyUnary(opcode, stack[top]);
             } else {
-                stack.push(new BigDecimal(token));
+                BigDecimal arg2 = stack[top--];
+                stack[top] = apply(opcode, stack[top], arg2);
             }
         }
-        if (stack.size() != 1) {
-            throw new IllegalStateException("stack.size() != 1");
-        }
-        return stack.pop().round(mathContext);
+        return stack[0].round(mathContext);
     }
 
     @Override
@@ -62,7 +107,117 @@ public class BasicPostfixCalculator implements PostfixCalculator {
         return mathContext.getPrecision();
     }
 
+    // Returns EXACT in the exact mode
+    public int getGuardDigits() {
+        return guardedContext == null ? EXACT : guardedContext.getPrecision() - getLimit();
+    }
+
+    public int getMaxPrecision() {
+        return maxPrecision;
+    }
+
+    // Results of exact mode calculators do not depend on an order of additions or multiplications
+    // except for rounding of divisions
+    boolean isExact() {
+        return guardedContext == null;
+    }
+
+    // Identities x+0 or x*1 neither round x nor check it against a cap only in the exact uncapped mode
+    boolean isExactAndUncapped() {
+        return guardedContext == null && maxPrecision == UNCAPPED;
+    }
+
+    // Returns a precision to which divisions, and in the guarded mode also other operations, are rounded
+    int getOperationPrecision() {
+        return guardedContext == null ? getLimit() : guardedContext.getPrecision();
+    }
+
+    MathContext getMathContext() {
+        return mathContext;
+    }
+
+    BigDecimal apply(Opcode opcode, BigDecimal arg1, BigDecimal arg2) {
+        switch (opcode) {
+            case ADD:
+                checkAlignedPrecision(arg1, arg2);
+                return checkPrecision(guardedContext == null ? arg1.add(arg2) : arg1.add(arg2, guardedContext));
+            case SUB:
+                checkAlignedPrecision(arg1, arg2);
+                return checkPrecision(guardedContext == null ? arg1.subtract(arg2)
+                                                             : arg1.subtract(arg2, guardedContext));
+            case MUL:
+                // an exact product has at least precision1 + precision2 - 1 digits, a rounded one is capped below
+                if (maxPrecision != UNCAPPED && guardedContext == null
+                        && (long) arg1.precision() + arg2.precision() - 1 > maxPrecision) {
+                    throw precisionExceeded();
+                }
+                return checkPrecision(guardedContext == null ? arg1.multiply(arg2)
+                                                             : arg1.multiply(arg2, guardedContext));
+            case DIV:
+                return divide(arg1, arg2);
+            case POW:
+                return BigMath.pow(arg1, arg2, operationContext());
+            case MIN:
+                return arg1.min(arg2);
+            case MAX:
+                return arg1.max(arg2);
+            default:
+                throw new IllegalArgumentException("not a binary operation: " + opcode);
+        }
+    }
+
+    // Functions are computed to getOperationPrecision() digits
+    BigDecimal applyUnary(Opcode opcode, BigDecimal arg) {
+        switch (opcode) {
+            case NEG:
+                return arg.negate();
+            case ABS:
+                return arg.abs();
+            case SQRT:
+                return BigMath.sqrt(arg, operationContext());
+            case LN:
+                return BigMath.ln(arg, operationContext());
+            case EXP:
+                return BigMath.exp(arg, operationContext());
+            default:
+                throw new IllegalArgumentException("not a unary operation: " + opcode);
+        }
+    }
+
     private BigDecimal divide(BigDecimal arg1, BigDecimal arg2)  {
-        return arg1.divide(arg2, mathContext);
+        // the same messages as of BigDecimal.divide, without stack traces
+        if (arg2.signum() == 0) {
+            throw new CalculationException(arg1.signum() == 0 ? "Division undefined" : "Division by zero",
+                    Result.ErrorCode.DIVISION_BY_ZERO);
+        }
+        return arg1.divide(arg2, operationContext());
+    }
+
+    private MathContext operationContext() {
+        return guardedContext == null ? mathContext : guardedContext;
+    }
+
+    BigDecimal checkPrecision(BigDecimal value) {
+        if (maxPrecision != UNCAPPED && value.precision() > maxPrecision) {
+            throw precisionExceeded();
+        }
+        return value;
+    }
+
+    // An exact sum has digits from the highest integer digit to the lowest fraction digit of its operands,
+    // e.g. 1E+100 + 1E-100 has 201 digits. A rounded sum does not depend on the smaller operand so much.
+    private void checkAlignedPrecision(BigDecimal arg1, BigDecimal arg2) {
+        if (maxPrecision == UNCAPPED || guardedContext != null) {
+            return;
+        }
+        long integerDigits = Math.max((long) arg1.precision() - arg1.scale(), (long) arg2.precision() - arg2.scale());
+        long aligned = integerDigits + Math.max(arg1.scale(), arg2.scale());
+        if (aligned > maxPrecision) {
+            throw precisionExceeded();
+        }
+    }
+
+    private ArithmeticException precisionExceeded() {
+        return new CalculationException(String.format("Intermediate result over %d digits", maxPrecision));
     }
 }
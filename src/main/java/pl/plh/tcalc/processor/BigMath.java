@@ -0,0 +1,212 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+// Elementary functions of BigDecimals computed to the precision of a MathContext.
+// Intermediate computations keep guard digits, so results are within one unit in the last place
+// of exact values, but they are not always correctly rounded.
+// Exact results, e.g. sqrt(4) or 2^10, are computed exactly.
+final class BigMath {
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final BigDecimal ONE_AND_HALF = new BigDecimal("1.5");
+    private static final BigDecimal THREE_QUARTERS = new BigDecimal("0.75");
+    // e^x for |x| over it is out of the range of BigDecimal exponents
+    private static final BigDecimal MAX_EXP_ARGUMENT = new BigDecimal("5E+9");
+    private static final int GUARD_DIGITS = 10;
+
+    // ln(2) and ln(10) of the greatest precision computed so far
+    private static volatile Logarithms logarithms = new Logarithms(0, null, null);
+
+    private BigMath() {
+    }
+
+    // Newton's iteration y = (y + x/y) / 2, which doubles the number of correct digits in every step,
+    // starting from a double approximation
+    static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0) {
+            throw new CalculationException("Square root of a negative number");
+        }
+        if (x.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        // x = m * 100^k, where 1 <= m < 100 fits a double
+        int k = Math.floorDiv(exponent(x), 2);
+        BigDecimal y = BigDecimal.valueOf(Math.sqrt(x.movePointLeft(2 * k).doubleValue())).movePointRight(k);
+        int workingPrecision = mc.getPrecision() + 2;
+        int precision = 8;
+        do {
+            precision = Math.min(2 * precision, workingPrecision);
+            MathContext wc = new MathContext(precision, RoundingMode.HALF_EVEN);
+            y = y.add(x.divide(y, wc)).multiply(HALF, wc);
+        } while (precision < workingPrecision);
+        return y.round(mc);
+    }
+
+    // e^x = (e^(x / 2^k))^(2^k), where x / 2^k < 2^-8 and its exponential is summed as the Taylor series
+    static BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ONE.round(mc);
+        }
+        if (x.abs().compareTo(MAX_EXP_ARGUMENT) > 0) {
+            throw new CalculationException(x.signum() > 0 ? "Overflow" : "Underflow");
+        }
+        int k = x.abs().toBigInteger().bitLength() + 8;
+        // every squaring doubles a relative error
+        MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS + k * 3 / 10, RoundingMode.HALF_EVEN);
+        BigDecimal r = x.divide(TWO.pow(k), wc);
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for (int i = 1; ; i++) {
+            term = term.multiply(r, wc).divide(BigDecimal.valueOf(i), wc);
+            if (exponent(term) < -wc.getPrecision()) {
+                break;
+            }
+            sum = sum.add(term, wc);
+        }
+        for (int i = 0; i < k; i++) {
+            sum = sum.multiply(sum, wc);
+        }
+        return sum.round(mc);
+    }
+
+    // ln(x) = ln(y) + j ln(2) + e ln(10), where x = y * 2^j * 10^e and 0.75 <= y < 1.5,
+    // and ln(y) = 2 atanh((y - 1) / (y + 1)) is summed as the Taylor series of atanh
+    static BigDecimal ln(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0) {
+            throw new CalculationException("Logarithm of a non-positive number");
+        }
+        if (x.compareTo(BigDecimal.ONE) == 0) {
+            return BigDecimal.ZERO;
+        }
+        if (x.compareTo(THREE_QUARTERS) >= 0 && x.compareTo(ONE_AND_HALF) < 0) {
+            // no reduction, which could cancel digits of a result close to zero
+            MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            return lnNearOne(x, wc).round(mc);
+        }
+        int e = exponent(x);
+        BigDecimal y = x.movePointLeft(e);
+        int j = 0;
+        while (y.compareTo(ONE_AND_HALF) >= 0) {
+            y = y.multiply(HALF);
+            j++;
+        }
+        MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS + Integer.toString(e).length(),
+                RoundingMode.HALF_EVEN);
+        Logarithms constants = logarithms(wc.getPrecision());
+        BigDecimal result = lnNearOne(y, wc)
+                .add(constants.ln2.multiply(BigDecimal.valueOf(j), wc), wc)
+                .add(constants.ln10.multiply(BigDecimal.valueOf(e), wc), wc);
+        return result.round(mc);
+    }
+
+    // An integer exponent of at most 18 digits is computed by binary exponentiation, otherwise
+    // x^y = e^(y ln(x)), which requires a positive x
+    static BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+        BigDecimal n = y.signum() == 0 ? BigDecimal.ZERO : y.stripTrailingZeros();
+        if (n.scale() <= 0 && n.precision() - n.scale() <= PostfixProgram.COMPACT_PRECISION) {
+            return pow(x, n.longValueExact(), mc);
+        }
+        if (x.signum() == 0 && y.signum() > 0) {
+            return BigDecimal.ZERO;
+        }
+        if (x.signum() <= 0) {
+            throw new CalculationException("Power undefined");
+        }
+        // an absolute error of y ln(x) is a relative error of the result, so ln(x) needs as many more digits
+        // as y ln(x) has integer digits
+        MathContext estimate = new MathContext(GUARD_DIGITS, RoundingMode.HALF_EVEN);
+        int integerDigits = Math.max(0, exponent(y.multiply(ln(x, estimate), estimate)) + 1);
+        MathContext wc = new MathContext(mc.getPrecision() + GUARD_DIGITS + integerDigits, RoundingMode.HALF_EVEN);
+        return exp(y.multiply(ln(x, wc), wc), wc).round(mc);
+    }
+
+    // Squares the base for every bit of the exponent, so x^n takes at most 2 log2(n) multiplications
+    static BigDecimal pow(BigDecimal x, long n, MathContext mc) {
+        if (n == 0) {
+            return BigDecimal.ONE;
+        }
+        if (x.signum() == 0) {
+            if (n < 0) {
+                throw new CalculationException("Division by zero", Result.ErrorCode.DIVISION_BY_ZERO);
+            }
+            return BigDecimal.ZERO;
+        }
+        long m = Math.abs(n);
+        // every multiplication may round once
+        MathContext wc = new MathContext(mc.getPrecision() + 3 + Long.toString(m).length(), RoundingMode.HALF_EVEN);
+        BigDecimal result = BigDecimal.ONE;
+        BigDecimal base = x;
+        while (true) {
+            if ((m & 1) != 0) {
+                result = result.multiply(base, wc);
+            }
+            m >>= 1;
+            if (m == 0) {
+                break;
+            }
+            base = base.multiply(base, wc);
+        }
+        if (n < 0) {
+            result = BigDecimal.ONE.divide(result, wc);
+        }
+        return result.round(mc);
+    }
+
+    // Returns the exponent of the most significant digit: x = d.ddd * 10^exponent
+    private static int exponent(BigDecimal x) {
+        return x.precision() - x.scale() - 1;
+    }
+
+    // 2 atanh(z) = 2 (z + z^3/3 + z^5/5 + ...), where z = (y - 1) / (y + 1) and |z| <= 0.2
+    private static BigDecimal lnNearOne(BigDecimal y, MathContext wc) {
+        BigDecimal z = y.subtract(BigDecimal.ONE).divide(y.add(BigDecimal.ONE), wc);
+        return atanh(z, wc).multiply(TWO, wc);
+    }
+
+    private static BigDecimal atanh(BigDecimal z, MathContext wc) {
+        if (z.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        BigDecimal zSquared = z.multiply(z, wc);
+        BigDecimal power = z;
+        BigDecimal sum = z;
+        int lowest = exponent(z) - wc.getPrecision();
+        for (int i = 3; ; i += 2) {
+            power = power.multiply(zSquared, wc);
+            BigDecimal term = power.divide(BigDecimal.valueOf(i), wc);
+            if (exponent(term) < lowest) {
+                return sum;
+            }
+            sum = sum.add(term, wc);
+        }
+    }
+
+    // ln(2) = 2 atanh(1/3) and ln(10) = 3 ln(2) + ln(1.25) = 3 ln(2) + 2 atanh(1/9)
+    private static Logarithms logarithms(int precision) {
+        Logarithms cached = logarithms;
+        if (cached.precision < precision) {
+            MathContext wc = new MathContext(precision + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            BigDecimal ln2 = atanh(BigDecimal.ONE.divide(BigDecimal.valueOf(3), wc), wc).multiply(TWO, wc);
+            BigDecimal ln10 = ln2.multiply(BigDecimal.valueOf(3), wc)
+                    .add(atanh(BigDecimal.ONE.divide(BigDecimal.valueOf(9), wc), wc).multiply(TWO, wc), wc);
+            cached = new Logarithms(precision, ln2.round(wc), ln10.round(wc));
+            logarithms = cached;
+        }
+        return cached;
+    }
+
+    private static final class Logarithms {
+        final int precision;
+        final BigDecimal ln2;
+        final BigDecimal ln10;
+
+        Logarithms(int precision, BigDecimal ln2, BigDecimal ln10) {
+            this.precision = precision;
+            this.ln2 = ln2;
+            this.ln10 = ln10;
+        }
+    }
+}
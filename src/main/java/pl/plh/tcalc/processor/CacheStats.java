@@ -0,0 +1,43 @@
+package pl.plh.tcalc.processor;
+
+// Immutable snapshot of cache counters
+public final class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+
+    public CacheStats(long hits, long misses, long evictions, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    // Returns a number of entries at the moment of the snapshot
+    public int getSize() {
+        return size;
+    }
+
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%1$d, misses=%2$d, evictions=%3$d, size=%4$d", hits, misses, evictions, size);
+    }
+}
@@ -0,0 +1,25 @@
+package pl.plh.tcalc.processor;
+
+// ArithmeticException of calculators without a stack trace. Errors like a division by zero
+// are results of expressions rather than bugs, so they should cost no more than values.
+final class CalculationException extends ArithmeticException {
+    private final Result.ErrorCode errorCode;
+
+    CalculationException(String message) {
+        this(message, Result.ErrorCode.ARITHMETIC_ERROR);
+    }
+
+    CalculationException(String message, Result.ErrorCode errorCode) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    Result.ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,192 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Turns the expression tree of a program into a DAG where identical subtrees are a single node
+// (hash-consing) and rewrites the program, so every operation of a repeated subexpression is evaluated
+// once per evaluation: the first occurrence is computed and STOREd in a register
+// and the next ones RECALL it. E.g. "(a+b*c)/(a+b*c+1)" computes a+b*c once.
+// Subexpressions are identical if they have the same operations on the same variables and constants
+// of the same scales, so results and errors of rewritten programs are identical to those of original ones.
+// Only subexpressions with operations are shared, single constants and variables are cheaper to push again.
+public final class CommonSubexpressionEliminator {
+    public Elimination eliminate(PostfixProgram program) {
+        checkNotNull(program);
+        Interner interner = new Interner();
+        ExpressionNode root = ExpressionNode.of(program, interner);
+        Map<ExpressionNode, Integer> registers = new IdentityHashMap<>();
+        PostfixProgram.Builder builder = new PostfixProgram.Builder();
+        for (String variable : program.getVariables()) {
+            builder.declare(variable);
+        }
+        long evaluated = 0;
+        // operations are pushed twice: to be expanded into operands and then to be emitted
+        Deque<ExpressionNode> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(root);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            ExpressionNode node = stack.pop();
+            boolean emit = expanded.pop();
+            Integer register = registers.get(node);
+            if (register != null) {
+                builder.recall(register);
+            } else if (node.opcode == Opcode.PUSH) {
+                builder.push(node.constant);
+                evaluated++;
+            } else if (node.opcode == Opcode.LOAD) {
+                builder.load(node.variable);
+                evaluated++;
+            } else if (emit) {
+                builder.operation(node.opcode);
+                evaluated++;
+                if (interner.isShared(node)) {
+                    registers.put(node, builder.store());
+                }
+            } else {
+                // the left operand is emitted first, so later occurrences of a subexpression find its register
+                stack.push(node);
+                expanded.push(true);
+                if (node.right != null) {
+                    stack.push(node.right);
+                    expanded.push(false);
+                }
+                stack.push(node.left);
+                expanded.push(false);
+            }
+        }
+        if (registers.isEmpty()) {
+            return new Elimination(program, 0);
+        }
+        return new Elimination(builder.build(), interner.treeSize(root) - evaluated);
+    }
+
+    // Result of an elimination
+    public static final class Elimination {
+        private final PostfixProgram program;
+        private final long deduplicated;
+
+        Elimination(PostfixProgram program, long deduplicated) {
+            this.program = program;
+            this.deduplicated = deduplicated;
+        }
+
+        // Returns the same program instance as given if it has no common subexpressions
+        public PostfixProgram getProgram() {
+            return program;
+        }
+
+        // Returns a number of nodes of the expression tree which are not evaluated any more,
+        // because they are parts of recalled subexpressions
+        public long getDeduplicatedNodes() {
+            return deduplicated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("deduplicated=%1$d, program=%2$s", deduplicated, program);
+        }
+    }
+
+    // Returns an existing node for every subtree identical to one created before
+    private static final class Interner extends ExpressionNode.Factory {
+        private final Map<Key, ExpressionNode> nodes = new HashMap<>();
+        // numbers of operations referring to nodes as operands
+        private final Map<ExpressionNode, Integer> references = new IdentityHashMap<>();
+        // sizes of trees of nodes with all subtrees expanded, they may grow exponentially with nesting
+        // of registers recalled by the given program, so they saturate at Long.MAX_VALUE
+        private final Map<ExpressionNode, Long> treeSizes = new IdentityHashMap<>();
+
+        @Override
+        ExpressionNode constant(BigDecimal constant) {
+            Key key = new Key(Opcode.PUSH, constant, null, null);
+            ExpressionNode node = nodes.get(key);
+            return node != null ? node : add(key, ExpressionNode.constant(constant));
+        }
+
+        @Override
+        ExpressionNode variable(String variable) {
+            Key key = new Key(Opcode.LOAD, variable, null, null);
+            ExpressionNode node = nodes.get(key);
+            return node != null ? node : add(key, ExpressionNode.variable(variable));
+        }
+
+        @Override
+        ExpressionNode unary(Opcode opcode, ExpressionNode operand) {
+            Key key = new Key(opcode, null, operand, null);
+            ExpressionNode node = nodes.get(key);
+            return node != null ? node : add(key, ExpressionNode.unary(opcode, operand));
+        }
+
+        @Override
+        ExpressionNode binary(Opcode opcode, ExpressionNode left, ExpressionNode right) {
+            Key key = new Key(opcode, null, left, right);
+            ExpressionNode node = nodes.get(key);
+            return node != null ? node : add(key, ExpressionNode.binary(opcode, left, right));
+        }
+
+        // Operations referred to more than once are computed once
+        boolean isShared(ExpressionNode node) {
+            Integer count = references.get(node);
+            return count != null && count > 1;
+        }
+
+        long treeSize(ExpressionNode node) {
+            return treeSizes.get(node);
+        }
+
+        private ExpressionNode add(Key key, ExpressionNode node) {
+            nodes.put(key, node);
+            long treeSize = 1;
+            for (ExpressionNode operand : new ExpressionNode[] {node.left, node.right}) {
+                if (operand != null) {
+                    references.merge(operand, 1, Integer::sum);
+                    long operandSize = treeSizes.get(operand);
+                    treeSize = operandSize > Long.MAX_VALUE - treeSize ? Long.MAX_VALUE : treeSize + operandSize;
+                }
+            }
+            treeSizes.put(node, treeSize);
+            return node;
+        }
+    }
+
+    // Operands are interned nodes, so they are compared by identity
+    private static final class Key {
+        private final Opcode opcode;
+        // a constant or a name of a variable
+        private final Object value;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Key(Opcode opcode, Object value, ExpressionNode left, ExpressionNode right) {
+            this.opcode = opcode;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            // BigDecimal.equals compares scales too
+            return opcode == key.opcode && Objects.equals(value, key.value) && left == key.left
+                    && right == key.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(opcode, value, System.identityHashCode(left), System.identityHashCode(right));
+        }
+    }
+}
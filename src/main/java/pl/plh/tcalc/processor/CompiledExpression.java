@@ -0,0 +1,109 @@
+package pl.plh.tcalc.processor;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Expression parsed once by Processor.compile(String) and evaluated many times
+// with values bound to its variables. Instances are immutable.
+public final class CompiledExpression {
+    private final Processor processor;
+    private final PostfixProgram program;
+
+    CompiledExpression(Processor processor, PostfixProgram program) {
+        this.processor = processor;
+        this.program = program;
+    }
+
+    public PostfixProgram getProgram() {
+        return program;
+    }
+
+    // Returns names of variables in order of their first occurrence in the expression
+    public List<String> getVariables() {
+        return program.getVariables();
+    }
+
+    // Arguments are values of variables in order of getVariables()
+    // Throws ArithmeticException if division by zero occurs
+    public BigDecimal calculate(BigDecimal... arguments) {
+        return processor.calculate(program, arguments);
+    }
+
+    public BigDecimal calculate(Map<String, BigDecimal> bindings) {
+        return calculate(arguments(bindings));
+    }
+
+    // Returns a formatted result or a message of an arithmetic error as Processor.process(String) does
+    public String evaluate(BigDecimal... arguments) {
+        return processor.evaluate(program, arguments);
+    }
+
+    public String evaluate(Map<String, BigDecimal> bindings) {
+        return evaluate(arguments(bindings));
+    }
+
+    // The same as evaluate(BigDecimal...), but the result is appended to out without building a string
+    public <A extends Appendable> A evaluateTo(A out, BigDecimal... arguments) throws IOException {
+        checkNotNull(out);
+        processor.evaluate(program, arguments, out);
+        return out;
+    }
+
+    // Evaluates a batch of rows given as columns of variable values in order of getVariables()
+    // All columns have to be of the same length which is the number of rows.
+    // Returns formatted results or messages of arithmetic errors, one for every row
+    public String[] evaluateAll(BigDecimal[]... columns) {
+        checkNotNull(columns);
+        if (columns.length != program.getVariableCount()) {
+            throw new IllegalArgumentException(String.format("%1$d columns given for variables %2$s",
+                    columns.length, getVariables()));
+        }
+        int rows = columns.length == 0 ? 1 : columns[0].length;
+        for (BigDecimal[] column : columns) {
+            checkNotNull(column);
+            if (column.length != rows) {
+                throw new IllegalArgumentException("columns of different lengths");
+            }
+        }
+        String[] results = new String[rows];
+        BigDecimal[] arguments = new BigDecimal[columns.length];
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                arguments[i] = columns[i][row];
+            }
+            results[row] = processor.evaluate(program, arguments);
+        }
+        return results;
+    }
+
+    // The same as evaluateAll(BigDecimal[]...), but columns are bound by variable names
+    public String[] evaluateAll(Map<String, BigDecimal[]> columns) {
+        checkNotNull(columns);
+        BigDecimal[][] ordered = new BigDecimal[program.getVariableCount()][];
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i] = columns.get(getVariables().get(i));
+            if (ordered[i] == null) {
+                throw new IllegalArgumentException("missing column of " + getVariables().get(i));
+            }
+        }
+        return evaluateAll(ordered);
+    }
+
+    @Override
+    public String toString() {
+        return program.toString();
+    }
+
+    private BigDecimal[] arguments(Map<String, BigDecimal> bindings) {
+        checkNotNull(bindings);
+        BigDecimal[] arguments = new BigDecimal[program.getVariableCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = bindings.get(getVariables().get(i));
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,244 @@
+package pl.plh.tcalc.processor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static pl.plh.tcalc.GenericValidator.*;
+
+// Calculator which interprets a program until it is calculated threshold times and then compiles it
+// to a tree of method handles: constants are bound into the tree, operations are bound to the operations
+// of BasicPostfixCalculator and operands are evaluated in postfix order, so results, including scales,
+// and errors are identical to the interpreted ones. The JIT compiler of the JVM compiles the tree
+// like any other code, without the dispatch of the interpreter loop.
+// Programs are tracked by identity in a concurrent map, so calculations of a compiled program take no locks,
+// and in a bounded cache with the least recently used eviction, which removes evicted programs from the map.
+// The number of compiled programs is bounded and a program evicted before it gets hot is counted from zero
+// again. Evictions happen only when new programs come, so a program touches the cache only once after each
+// new program instead of on every calculation.
+// Programs of more than MAX_COMPILED_SIZE operations, whose trees would be deep, and programs with constants
+// over the precision cap are always interpreted.
+public class CompilingPostfixCalculator implements PostfixCalculator {
+    public static final int DEFAULT_THRESHOLD = 1 << 10;
+    public static final int DEFAULT_MAX_PROGRAMS = 1 << 10;
+    public static final int MAX_COMPILED_SIZE = 256;
+
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+    private static final MethodHandle APPLY;
+    private static final MethodHandle APPLY_UNARY;
+    private static final MethodHandle CHECK_PRECISION;
+    private static final MethodHandle STORE;
+    private static final MethodHandle ROUND;
+    private static final MethodHandle ELEMENT = MethodHandles.arrayElementGetter(BigDecimal[].class);
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            APPLY = lookup.findVirtual(BasicPostfixCalculator.class, "apply",
+                    MethodType.methodType(BigDecimal.class, Opcode.class, BigDecimal.class, BigDecimal.class));
+            APPLY_UNARY = lookup.findVirtual(BasicPostfixCalculator.class, "applyUnary",
+                    MethodType.methodType(BigDecimal.class, Opcode.class, BigDecimal.class));
+            CHECK_PRECISION = lookup.findVirtual(BasicPostfixCalculator.class, "checkPrecision",
+                    MethodType.methodType(BigDecimal.class, BigDecimal.class));
+            STORE = lookup.findStatic(CompilingPostfixCalculator.class, "store", MethodType.methodType(
+                    BigDecimal.class, BigDecimal.class, BigDecimal[].class, BigDecimal[].class, int.class));
+            ROUND = lookup.findVirtual(BigDecimal.class, "round",
+                    MethodType.methodType(BigDecimal.class, MathContext.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final BasicPostfixCalculator calculator;
+    private final int threshold;
+    private final ConcurrentMap<PostfixProgram, Entry> entries = new ConcurrentHashMap<>();
+    // the order of use and eviction of entries, values are not read
+    private final LruCache<PostfixProgram, Entry> programs;
+    private final LongAdder hits = new LongAdder();
+    // incremented for every new program, entries used since then are moved to the end of the eviction order
+    private volatile int epoch;
+
+    // threshold - number of interpreted calculations of a program before it is compiled
+    // maxPrograms - maximal number of programs counted or compiled at a time
+    public CompilingPostfixCalculator(BasicPostfixCalculator calculator, int threshold, int maxPrograms) {
+        checkNotNull(calculator);
+        checkMin(threshold, 1);
+        this.calculator = calculator;
+        this.threshold = threshold;
+        this.programs = new LruCache<>(maxPrograms, entries::remove);
+    }
+
+    public CompilingPostfixCalculator(BasicPostfixCalculator calculator) {
+        this(calculator, DEFAULT_THRESHOLD, DEFAULT_MAX_PROGRAMS);
+    }
+
+    public CompilingPostfixCalculator() {
+        this(new BasicPostfixCalculator());
+    }
+
+    // Tokens are parsed to a new program on every call, so they are never compiled
+    @Override
+    public BigDecimal calculate(List<String> postfix) {
+        return calculator.calculate(postfix);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, NO_ARGUMENTS);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        Entry entry = track(program);
+        MethodHandle compiled = entry.compiled;
+        if (compiled == null) {
+            if (entry.calculations.incrementAndGet() == threshold) {
+                entry.compiled = compile(program);
+            }
+            return calculator.calculate(program, arguments);
+        }
+        BigDecimal[] registers = program.getRegisterCount() == 0 ? NO_ARGUMENTS
+                                                                : new BigDecimal[program.getRegisterCount()];
+        try {
+            return (BigDecimal) compiled.invokeExact(arguments, registers);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return calculator.getLimit();
+    }
+
+    // see BasicPostfixCalculator.isExactAndUncapped()
+    boolean isExactAndUncapped() {
+        return calculator.isExactAndUncapped();
+    }
+
+    // Hits and misses of tracked programs, evictions of counted or compiled ones
+    public CacheStats getStats() {
+        CacheStats stats = programs.getStats();
+        return new CacheStats(hits.sum(), stats.getMisses(), stats.getEvictions(), stats.getSize());
+    }
+
+    // Returns true if the program has been compiled and is not evicted yet
+    boolean isCompiled(PostfixProgram program) {
+        Entry entry = entries.get(program);
+        return entry != null && entry.compiled != null;
+    }
+
+    private Entry track(PostfixProgram program) {
+        Entry tracked = entries.get(program);
+        if (tracked != null) {
+            hits.increment();
+            int current = epoch;
+            if (tracked.epoch != current) {
+                tracked.epoch = current;
+                programs.get(program, p -> tracked);
+            }
+            return tracked;
+        }
+        Entry created = new Entry();
+        Entry raced = entries.putIfAbsent(program, created);
+        if (raced != null) {
+            hits.increment();
+            return raced;
+        }
+        created.epoch = ++epoch;
+        // may evict another program
+        programs.get(program, p -> created);
+        return created;
+    }
+
+    // Returns a handle (arguments, registers) -> value with the final rounding or null if the program
+    // is always interpreted. Every node of the tree is a handle of the same type.
+    private MethodHandle compile(PostfixProgram program) {
+        if (program.size() > MAX_COMPILED_SIZE) {
+            return null;
+        }
+        boolean capped = calculator.getMaxPrecision() != BasicPostfixCalculator.UNCAPPED;
+        MethodHandle[] stack = new MethodHandle[program.getMaxStackDepth()];
+        int top = -1;
+        for (int i = 0; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            int operand = program.getOperand(i);
+            switch (opcode) {
+                case PUSH:
+                    BigDecimal constant = program.getConstant(operand);
+                    if (capped && constant.precision() > calculator.getMaxPrecision()) {
+                        return null;
+                    }
+                    stack[++top] = MethodHandles.dropArguments(MethodHandles.constant(BigDecimal.class, constant),
+                            0, BigDecimal[].class, BigDecimal[].class);
+                    break;
+                case LOAD:
+                    MethodHandle load = MethodHandles.insertArguments(ELEMENT, 1, operand);
+                    if (capped) {
+                        load = MethodHandles.filterReturnValue(load, CHECK_PRECISION.bindTo(calculator));
+                    }
+                    stack[++top] = MethodHandles.dropArguments(load, 1, BigDecimal[].class);
+                    break;
+                case STORE:
+                    // the value is stored when its subexpression is evaluated, before any RECALL of it
+                    stack[top] = MethodHandles.foldArguments(MethodHandles.insertArguments(STORE, 3, operand),
+                            stack[top]);
+                    break;
+                case RECALL:
+                    stack[++top] = MethodHandles.dropArguments(MethodHandles.insertArguments(ELEMENT, 1, operand),
+                            0, BigDecimal[].class);
+                    break;
+                default:
+                    if (opcode.getArity() == 1) {
+                        stack[top] = MethodHandles.filterReturnValue(stack[top],
+                                MethodHandles.insertArguments(APPLY_UNARY.bindTo(calculator), 0, opcode));
+                    } else {
+                        MethodHandle right = stack[top--];
+                        stack[top] = binary(opcode, stack[top], right);
+                    }
+            }
+        }
+        return MethodHandles.filterReturnValue(stack[0],
+                MethodHandles.insertArguments(ROUND, 1, calculator.getMathContext()));
+    }
+
+    // The left operand is evaluated before the right one, as by the interpreter
+    private MethodHandle binary(Opcode opcode, MethodHandle left, MethodHandle right) {
+        // (left, right, arguments, registers)
+        MethodHandle operation = MethodHandles.dropArguments(
+                MethodHandles.insertArguments(APPLY.bindTo(calculator), 0, opcode),
+                2, BigDecimal[].class, BigDecimal[].class);
+        // (right, left, arguments, registers)
+        MethodHandle swapped = MethodHandles.permuteArguments(operation,
+                MethodType.methodType(BigDecimal.class, BigDecimal.class, BigDecimal.class, BigDecimal[].class,
+                        BigDecimal[].class), 1, 0, 2, 3);
+        // (left, arguments, registers)
+        MethodHandle withRight = MethodHandles.foldArguments(swapped,
+                MethodHandles.dropArguments(right, 0, BigDecimal.class));
+        return MethodHandles.foldArguments(withRight, left);
+    }
+
+    private static BigDecimal store(BigDecimal value, BigDecimal[] arguments, BigDecimal[] registers, int register) {
+        registers[register] = value;
+        return value;
+    }
+
+    private static final class Entry {
+        final AtomicInteger calculations = new AtomicInteger();
+        // null until the program is compiled
+        volatile MethodHandle compiled;
+        // the epoch of the last move to the end of the eviction order, racy updates only move it again
+        volatile int epoch;
+    }
+}
@@ -0,0 +1,28 @@
+package pl.plh.tcalc.processor;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Decimal separators of locales, looked up once per locale
+final class DecimalSeparators {
+    private static final ConcurrentMap<Locale, Character> SEPARATORS = new ConcurrentHashMap<>();
+
+    private DecimalSeparators() {
+    }
+
+    static char of(Locale locale) {
+        Character separator = SEPARATORS.get(locale);
+        if (separator == null) {
+            separator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+            SEPARATORS.putIfAbsent(locale, separator);
+        }
+        return separator;
+    }
+
+    // Returns a decimal separator of the default format locale
+    static char ofDefault() {
+        return of(Locale.getDefault(Locale.Category.FORMAT));
+    }
+}
@@ -0,0 +1,152 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Immutable node of an expression tree built from a PostfixProgram.
+// Passes rewriting programs work on trees, which are converted back to programs afterwards.
+// Trees of long expressions are very deep, so they are built and traversed without recursion.
+final class ExpressionNode {
+    final Opcode opcode;
+    final BigDecimal constant;
+    final String variable;
+    // the only operand of unary operations is the left one
+    final ExpressionNode left;
+    final ExpressionNode right;
+
+    private ExpressionNode(Opcode opcode, BigDecimal constant, String variable, ExpressionNode left,
+                           ExpressionNode right) {
+        this.opcode = opcode;
+        this.constant = constant;
+        this.variable = variable;
+        this.left = left;
+        this.right = right;
+    }
+
+    static ExpressionNode constant(BigDecimal constant) {
+        return new ExpressionNode(Opcode.PUSH, constant, null, null, null);
+    }
+
+    static ExpressionNode variable(String variable) {
+        return new ExpressionNode(Opcode.LOAD, null, variable, null, null);
+    }
+
+    static ExpressionNode unary(Opcode opcode, ExpressionNode operand) {
+        return new ExpressionNode(opcode, null, null, operand, null);
+    }
+
+    static ExpressionNode binary(Opcode opcode, ExpressionNode left, ExpressionNode right) {
+        return new ExpressionNode(opcode, null, null, left, right);
+    }
+
+    boolean isConstant() {
+        return opcode == Opcode.PUSH;
+    }
+
+    boolean isConstant(BigDecimal value) {
+        return opcode == Opcode.PUSH && constant.compareTo(value) == 0;
+    }
+
+    static ExpressionNode of(PostfixProgram program) {
+        return of(program, new Factory());
+    }
+
+    // Nodes are created by the factory in postfix order, so the factory sees operands before operations
+    // A recalled register shares the node of its subexpression, which is created once.
+    static ExpressionNode of(PostfixProgram program, Factory factory) {
+        ExpressionNode[] stack = new ExpressionNode[program.getMaxStackDepth()];
+        ExpressionNode[] registers = new ExpressionNode[program.getRegisterCount()];
+        int top = -1;
+        for (int i = 0; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            switch (opcode) {
+                case PUSH:
+                    stack[++top] = factory.constant(program.getConstant(program.getOperand(i)));
+                    break;
+                case LOAD:
+                    stack[++top] = factory.variable(program.getVariables().get(program.getOperand(i)));
+                    break;
+                case STORE:
+                    registers[program.getOperand(i)] = stack[top];
+                    break;
+                case RECALL:
+                    stack[++top] = registers[program.getOperand(i)];
+                    break;
+                default:
+                    if (opcode.getArity() == 1) {
+                        stack[top] = factory.unary(opcode, stack[top]);
+                    } else {
+                        ExpressionNode right = stack[top--];
+                        stack[top] = factory.binary(opcode, stack[top], right);
+                    }
+            }
+        }
+        return stack[0];
+    }
+
+    // Variables of the program keep the given order, even if some of them are not used any more
+    // Shared nodes are written out as many times as they are referenced
+    PostfixProgram toProgram(List<String> variables) {
+        PostfixProgram.Builder builder = new PostfixProgram.Builder();
+        for (String variable : variables) {
+            builder.declare(variable);
+        }
+        for (ExpressionNode node : postOrder()) {
+            switch (node.opcode) {
+                case PUSH:
+                    builder.push(node.constant);
+                    break;
+                case LOAD:
+                    builder.load(node.variable);
+                    break;
+                default:
+                    builder.operation(node.opcode);
+            }
+        }
+        return builder.build();
+    }
+
+    // Returns nodes in postfix order
+    List<ExpressionNode> postOrder() {
+        // nodes are collected as node, right, left and then reversed
+        List<ExpressionNode> nodes = new ArrayList<>();
+        Deque<ExpressionNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            ExpressionNode node = stack.pop();
+            nodes.add(node);
+            if (node.left != null) {
+                stack.push(node.left);
+            }
+            if (node.right != null) {
+                stack.push(node.right);
+            }
+        }
+        for (int i = 0, j = nodes.size() - 1; i < j; i++, j--) {
+            nodes.set(i, nodes.set(j, nodes.get(i)));
+        }
+        return nodes;
+    }
+
+    // Creates nodes while a tree is built, subclasses may rewrite them
+    static class Factory {
+        ExpressionNode constant(BigDecimal constant) {
+            return ExpressionNode.constant(constant);
+        }
+
+        ExpressionNode variable(String variable) {
+            return ExpressionNode.variable(variable);
+        }
+
+        ExpressionNode unary(Opcode opcode, ExpressionNode operand) {
+            return ExpressionNode.unary(opcode, operand);
+        }
+
+        ExpressionNode binary(Opcode opcode, ExpressionNode left, ExpressionNode right) {
+            return ExpressionNode.binary(opcode, left, right);
+        }
+    }
+}
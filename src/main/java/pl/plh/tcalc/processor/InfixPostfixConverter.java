@@ -7,4 +7,9 @@ public interface InfixPostfixConverter {
     // or decimal point is not suitable to localization
     // Returns a List of String postfix tokens where decimals have standard java form with '.' as a decimal point
     List<String> convert(String infix);
+
+    // The same as convert(String), but returns a compiled program with pre-parsed literals
+    default PostfixProgram compile(String infix) {
+        return PostfixProgram.of(convert(infix));
+    }
 }
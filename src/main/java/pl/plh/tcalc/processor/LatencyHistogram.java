@@ -0,0 +1,45 @@
+package pl.plh.tcalc.processor;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of latencies in nanoseconds with logarithmic buckets: bucket i holds values in [2^(i-1), 2^i),
+// so percentiles are accurate to a factor of two, which is enough to tell phases apart.
+// Recording does not lock and is safe for concurrent callers.
+final class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value))].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        total.reset();
+        max.reset();
+    }
+
+    // Counters are read one by one, so a snapshot taken while recording may be slightly inconsistent
+    LatencyStats getStats() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new LatencyStats(counts, total.sum(), max.get());
+    }
+}
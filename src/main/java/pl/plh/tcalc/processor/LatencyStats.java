@@ -0,0 +1,77 @@
+package pl.plh.tcalc.processor;
+
+// Immutable snapshot of a latency histogram, all values are in nanoseconds.
+// Percentiles are upper bounds of logarithmic buckets, but never greater than the maximum.
+public final class LatencyStats {
+    private final long[] buckets;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    LatencyStats(long[] buckets, long totalNanos, long maxNanos) {
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        this.buckets = buckets;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    public long getP999Nanos() {
+        return getPercentileNanos(99.9);
+    }
+
+    // percentile is in range (0, 100]
+    public long getPercentileNanos(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                long upperBound = i == 0 ? 0 : i == buckets.length - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                return Math.min(upperBound, maxNanos);
+            }
+        }
+        return 0;
+    }
+
+    // Returns numbers of values in buckets, bucket i holds values in [2^(i-1), 2^i)
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%1$d, mean=%2$dns, p50=%3$dns, p99=%4$dns, p999=%5$dns, max=%6$dns",
+                count, getMeanNanos(), getP50Nanos(), getP99Nanos(), getP999Nanos(), maxNanos);
+    }
+}
@@ -0,0 +1,274 @@
+package pl.plh.tcalc.processor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+// Hand-written, single-pass lexer of infix expressions.
+// It indexes straight into the source, so neither regular expressions
+// nor string copies are involved while scanning.
+// A source read from a Reader keeps only a window of chars from the last token on,
+// so expressions of any length may be scanned in bounded memory.
+// The source is seen as if it were wrapped in brackets: "(" + source + ")",
+// but the brackets are virtual - position -1 holds '(' and position source.length() holds ')'.
+final class Lexer {
+    static final int EOF = -1;
+
+    private final Source source;
+    private final char decimalSeparator;
+    private int position = -1;
+    private int tokenStart;
+    private int tokenEnd;
+    private char[] buffer = new char[32];
+
+    Lexer(CharSequence source, char decimalSeparator) {
+        this(new SequenceSource(source), decimalSeparator);
+    }
+
+    // IOExceptions of the reader are thrown as UncheckedIOExceptions by scanning methods
+    Lexer(Reader source, char decimalSeparator) {
+        this(new ReaderSource(source), decimalSeparator);
+    }
+
+    private Lexer(Source source, char decimalSeparator) {
+        this.source = source;
+        this.decimalSeparator = decimalSeparator;
+    }
+
+    // Returns the next non-whitespace char without consuming it, or EOF
+    int peek() {
+        // the last token may still be asked for its value
+        source.release(Math.min(position, tokenStart));
+        while (isWhitespace(charAt(position))) {
+            position++;
+        }
+        return charAt(position);
+    }
+
+    // Consumes and returns the next non-whitespace char, or EOF
+    int next() {
+        int c = peek();
+        if (c != EOF) {
+            position++;
+        }
+        return c;
+    }
+
+    // Consumes a positive decimal: \d+(?:DS\d+)?
+    // Returns false and consumes nothing if the next non-whitespace char is not a digit.
+    // Bounds of the consumed decimal are given by tokenStart() and tokenEnd().
+    boolean nextDecimal() {
+        if (!isDigit(peek())) {
+            return false;
+        }
+        tokenStart = position;
+        skipDigits();
+        if (charAt(position) == decimalSeparator && isDigit(charAt(position + 1))) {
+            position++;
+            skipDigits();
+        }
+        tokenEnd = position;
+        return true;
+    }
+
+    // Consumes an identifier: [A-Za-z_][A-Za-z0-9_]*
+    // Returns false and consumes nothing if the next non-whitespace char cannot start an identifier.
+    // Bounds of the consumed identifier are given by tokenStart() and tokenEnd().
+    boolean nextIdentifier() {
+        if (!isIdentifierStart(peek())) {
+            return false;
+        }
+        tokenStart = position;
+        while (isIdentifierPart(charAt(position))) {
+            position++;
+        }
+        tokenEnd = position;
+        return true;
+    }
+
+    // Returns an index of the next non-whitespace char in the source, 0 for the virtual '('
+    // and the length of the source for the virtual ')' and the end
+    int offset() {
+        if (peek() == EOF) {
+            return source.length();
+        }
+        return Math.max(position, 0);
+    }
+
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    int tokenEnd() {
+        return tokenEnd;
+    }
+
+    // Returns a value of the last decimal
+    BigDecimal decimalValue() {
+        int length = tokenEnd - tokenStart;
+        if (length > buffer.length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = (char) source.charAt(tokenStart + i);
+            buffer[i] = c == decimalSeparator ? '.' : c;
+        }
+        return new BigDecimal(buffer, 0, length);
+    }
+
+    // Returns the last identifier
+    String identifierToken() {
+        return source.substring(tokenStart, tokenEnd);
+    }
+
+    static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isIdentifierStart(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+
+    static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    static boolean isOperator(int c) {
+        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^';
+    }
+
+    // Function arguments are separated by ';', or by ',' if it is not the decimal separator
+    boolean isArgumentSeparator(int c) {
+        return c == ';' || c == ',' && decimalSeparator != ',';
+    }
+
+    // the same set of chars as \s in java.util.regex.Pattern
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private void skipDigits() {
+        while (isDigit(charAt(position))) {
+            position++;
+        }
+    }
+
+    private int charAt(int index) {
+        if (index < 0) {
+            return index == -1 ? '(' : EOF;
+        }
+        int c = source.charAt(index);
+        if (c == EOF) {
+            return index == source.length() ? ')' : EOF;
+        }
+        return c;
+    }
+
+    // Chars of an expression by absolute indices
+    private interface Source {
+        // Returns EOF if the index is past the end
+        int charAt(int index);
+
+        // Valid once charAt(int) returned EOF
+        int length();
+
+        String substring(int start, int end);
+
+        // Chars before the index will not be asked for any more
+        void release(int index);
+    }
+
+    private static final class SequenceSource implements Source {
+        private final CharSequence sequence;
+
+        SequenceSource(CharSequence sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int charAt(int index) {
+            return index < sequence.length() ? sequence.charAt(index) : EOF;
+        }
+
+        @Override
+        public int length() {
+            return sequence.length();
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            return sequence.subSequence(start, end).toString();
+        }
+
+        @Override
+        public void release(int index) {
+        }
+    }
+
+    // Reads chars in blocks into a buffer which drops released chars before it grows
+    private static final class ReaderSource implements Source {
+        private final Reader reader;
+        private char[] buffer = new char[8192];
+        // absolute index of buffer[0]
+        private int base;
+        private int count;
+        private int released;
+        private boolean ended;
+
+        ReaderSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int charAt(int index) {
+            while (index >= base + count) {
+                if (ended || !fill()) {
+                    return EOF;
+                }
+            }
+            return buffer[index - base];
+        }
+
+        @Override
+        public int length() {
+            return base + count;
+        }
+
+        @Override
+        public String substring(int start, int end) {
+            return new String(buffer, start - base, end - start);
+        }
+
+        @Override
+        public void release(int index) {
+            if (index > released) {
+                released = index;
+            }
+        }
+
+        private boolean fill() {
+            int dropped = Math.min(released - base, count);
+            if (dropped > 0) {
+                System.arraycopy(buffer, dropped, buffer, 0, count - dropped);
+                base += dropped;
+                count -= dropped;
+            }
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, count * 2);
+            }
+            try {
+                int read = reader.read(buffer, count, buffer.length - count);
+                if (read < 0) {
+                    ended = true;
+                    return false;
+                }
+                count += read;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
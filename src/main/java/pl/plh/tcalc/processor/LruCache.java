@@ -0,0 +1,106 @@
+package pl.plh.tcalc.processor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Bounded cache with the least recently used eviction.
+// Keys are spread over independently locked segments, so concurrent callers rarely contend.
+// Values are computed outside of locks, so two callers missing the same key may both compute it.
+// An optional listener is told about evicted keys under the lock of their segment.
+final class LruCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    LruCache(int maxSize) {
+        this(maxSize, key -> { });
+    }
+
+    @SuppressWarnings("unchecked")
+    LruCache(int maxSize, Consumer<? super K> evictionListener) {
+        checkMin(maxSize, 1);
+        checkNotNull(evictionListener);
+        int count = Math.max(1, Math.min(MAX_SEGMENTS, maxSize / MIN_SEGMENT_SIZE));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // the first maxSize % count segments take the remainder
+            segments[i] = new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0), evictions,
+                    evictionListener);
+        }
+    }
+
+    V get(K key, Function<? super K, ? extends V> loader) {
+        Segment<K, V> segment = segmentOf(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        value = loader.apply(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+        return value;
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    CacheStats getStats() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Segment<K, V> segmentOf(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final int maxSize;
+        private final LongAdder evictions;
+        private final Consumer<? super K> evictionListener;
+
+        Segment(int maxSize, LongAdder evictions, Consumer<? super K> evictionListener) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+            this.evictionListener = evictionListener;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                evictionListener.accept(eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package pl.plh.tcalc.processor;
+
+// Immutable snapshot of ProcessorMetrics
+public final class MetricsSnapshot {
+    private final long successes;
+    private final long parseErrors;
+    private final long arithmeticErrors;
+    private final long unexpectedErrors;
+    private final LatencyStats convert;
+    private final LatencyStats calculate;
+    private final LatencyStats format;
+    private final LatencyStats process;
+
+    MetricsSnapshot(long successes, long parseErrors, long arithmeticErrors, long unexpectedErrors,
+                    LatencyStats convert, LatencyStats calculate, LatencyStats format, LatencyStats process) {
+        this.successes = successes;
+        this.parseErrors = parseErrors;
+        this.arithmeticErrors = arithmeticErrors;
+        this.unexpectedErrors = unexpectedErrors;
+        this.convert = convert;
+        this.calculate = calculate;
+        this.format = format;
+        this.process = process;
+    }
+
+    public long getSuccessCount() {
+        return successes;
+    }
+
+    public long getParseErrorCount() {
+        return parseErrors;
+    }
+
+    public long getArithmeticErrorCount() {
+        return arithmeticErrors;
+    }
+
+    public long getUnexpectedErrorCount() {
+        return unexpectedErrors;
+    }
+
+    public LatencyStats getConvertLatency() {
+        return convert;
+    }
+
+    public LatencyStats getCalculateLatency() {
+        return calculate;
+    }
+
+    public LatencyStats getFormatLatency() {
+        return format;
+    }
+
+    public LatencyStats getProcessLatency() {
+        return process;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("successes=%1$d, parse errors=%2$d, arithmetic errors=%3$d, unexpected errors=%4$d%n"
+                + "convert: %5$s%ncalculate: %6$s%nformat: %7$s%nprocess: %8$s", successes, parseErrors,
+                arithmeticErrors, unexpectedErrors, convert, calculate, format, process);
+    }
+}
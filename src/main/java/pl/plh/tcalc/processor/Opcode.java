@@ -0,0 +1,93 @@
+package pl.plh.tcalc.processor;
+
+// Operations of a compiled PostfixProgram
+public enum Opcode {
+    PUSH(null, 0),
+    LOAD(null, 0),
+    ADD("+", 2),
+    SUB("-", 2),
+    MUL("*", 2),
+    DIV("/", 2),
+    NEG("~", 1),
+    POW("^", 2),
+    SQRT("sqrt", 1, true),
+    LN("ln", 1, true),
+    EXP("exp", 1, true),
+    ABS("abs", 1, true),
+    // functions of two arguments take two or more arguments in infix, compiled to a chain of operations
+    MIN("min", 2, true),
+    MAX("max", 2, true),
+    // STORE copies the top of the stack to a register and RECALL pushes a value of a register,
+    // so a common subexpression is evaluated once (see CommonSubexpressionEliminator)
+    STORE(null, 1),
+    RECALL(null, 0);
+
+    private final String symbol;
+    private final int arity;
+    private final boolean function;
+
+    Opcode(String symbol, int arity) {
+        this(symbol, arity, false);
+    }
+
+    Opcode(String symbol, int arity, boolean function) {
+        this.symbol = symbol;
+        this.arity = arity;
+        this.function = function;
+    }
+
+    // Returns a postfix token of the operation or null for PUSH, LOAD, STORE and RECALL
+    public String getSymbol() {
+        return symbol;
+    }
+
+    // Returns a number of arguments popped from the stack
+    public int getArity() {
+        return arity;
+    }
+
+    // Functions are called by name in infix: name(argument; ...)
+    public boolean isFunction() {
+        return function;
+    }
+
+    // Returns an operation of the given postfix token or null if the token is not an operator
+    public static Opcode ofSymbol(String symbol) {
+        switch (symbol) {
+            case "+":
+                return ADD;
+            case "-":
+                return SUB;
+            case "*":
+                return MUL;
+            case "/":
+                return DIV;
+            case "~":
+                return NEG;
+            case "^":
+                return POW;
+            default:
+                return ofFunction(symbol);
+        }
+    }
+
+    // Returns a function of the given name or null if there is no such function
+    public static Opcode ofFunction(String name) {
+        switch (name) {
+            case "sqrt":
+                return SQRT;
+            case "ln":
+                return LN;
+            case "exp":
+                return EXP;
+            case "abs":
+                return ABS;
+            case "min":
+                return MIN;
+            case "max":
+                return MAX;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static pl.plh.tcalc.GenericValidator.*;
+
+// Calculator of very large expressions with results identical to BasicPostfixCalculator, including scales.
+// Chains of additions and subtractions, e.g. a-b+(c+d), and chains of multiplications are flattened
+// into terms, which are evaluated in parallel on a ForkJoinPool and combined in balanced trees,
+// so long products of large decimals cost about n*log(n) digit multiplications instead of n^2.
+// Reassociation is exact only if additions and multiplications are, so it is done only by calculators
+// in the exact mode without a precision cap (see BasicPostfixCalculator(int, int, int)).
+// Otherwise, and for programs smaller than the threshold or with registers, BasicPostfixCalculator
+// calculates sequentially.
+// Terms keep their order, so the first error in postfix order is reported as by BasicPostfixCalculator.
+// Products of terms with scales which could overflow in a different order are calculated sequentially.
+public class ParallelPostfixCalculator implements PostfixCalculator {
+    public static final int DEFAULT_THRESHOLD = 1 << 12;
+
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+    // chains nested deeper in terms of other chains are evaluated sequentially, which bounds recursion
+    private static final int MAX_NESTING = 32;
+    // digits of factors or number of summands of a range of terms worth combining in parallel
+    private static final long COMBINE_THRESHOLD = 1 << 12;
+
+    private final BasicPostfixCalculator calculator;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final boolean reassociable;
+    // a pool of one thread only adds the cost of scheduling tasks, products are still reassociated
+    private final boolean forking;
+
+    // threshold - minimal number of operations of a chain or of a range of its terms evaluated in parallel
+    public ParallelPostfixCalculator(BasicPostfixCalculator calculator, ForkJoinPool pool, int threshold) {
+        checkNotNull(calculator);
+        checkNotNull(pool);
+        checkMin(threshold, 1);
+        this.calculator = calculator;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.reassociable = calculator.isExact() && calculator.getMaxPrecision() == BasicPostfixCalculator.UNCAPPED;
+        this.forking = pool.getParallelism() > 1;
+    }
+
+    // Uses the common ForkJoinPool
+    public ParallelPostfixCalculator(int limit) {
+        this(new BasicPostfixCalculator(limit), ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public ParallelPostfixCalculator() {
+        this(70);
+    }
+
+    @Override
+    public BigDecimal calculate(List<String> postfix) {
+        checkNotNull(postfix);
+        return calculate(PostfixProgram.of(postfix));
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, NO_ARGUMENTS);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        if (!reassociable || program.size() < threshold || program.getRegisterCount() > 0) {
+            return calculator.calculate(program, arguments);
+        }
+        Evaluation.ProgramTask task = new Evaluation(program, arguments).new ProgramTask();
+        Object result = forking ? pool.invoke(task) : task.compute();
+        if (result instanceof ArithmeticException) {
+            throw (ArithmeticException) result;
+        }
+        return ((BigDecimal) result).round(calculator.getMathContext());
+    }
+
+    @Override
+    public int getLimit() {
+        return calculator.getLimit();
+    }
+
+    // see BasicPostfixCalculator.isExactAndUncapped()
+    boolean isExactAndUncapped() {
+        return calculator.isExactAndUncapped();
+    }
+
+    // A single calculation. Every subexpression is a range of operations of the program, from the first
+    // operation of its leftmost operand to its root operation, so it is evaluated without building a tree.
+    // Errors are passed as values between tasks, ForkJoinTask.join() may lose their messages.
+    private final class Evaluation {
+        private final PostfixProgram program;
+        private final BigDecimal[] arguments;
+        // index of the first operation of the subexpression with the root operation of the index
+        private final int[] starts;
+        // roots of chains of at least threshold operations which are not parts of larger chains,
+        // ordered by their first operations, outer chains before inner ones
+        private final int[] chains;
+
+        Evaluation(PostfixProgram program, BigDecimal[] arguments) {
+            this.program = program;
+            this.arguments = arguments;
+            int size = program.size();
+            starts = new int[size];
+            // chains which are operands of a chain of the same kind are parts of it
+            BitSet inner = new BitSet(size);
+            int[] stack = new int[program.getMaxStackDepth()];
+            int top = -1;
+            for (int i = 0; i < size; i++) {
+                int arity = program.getOpcode(i).getArity();
+                if (arity == 0) {
+                    stack[++top] = i;
+                } else if (arity == 2) {
+                    top--;
+                    if (isSameChain(i, i - 1)) {
+                        inner.set(i - 1);
+                    }
+                    if (isSameChain(i, stack[top + 1] - 1)) {
+                        inner.set(stack[top + 1] - 1);
+                    }
+                }
+                starts[i] = stack[top];
+            }
+            // first operations in high bits and complements of roots in low bits sort outer chains first
+            long[] keys = new long[16];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                // a sum of terms evaluated one after another costs the same in any order
+                Opcode opcode = program.getOpcode(i);
+                boolean reassociated = forking ? isChain(opcode) : opcode == Opcode.MUL;
+                if (reassociated && !inner.get(i) && i - starts[i] + 1 >= threshold) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    keys[count++] = (long) starts[i] << 32 | (Integer.MAX_VALUE - i);
+                }
+            }
+            Arrays.sort(keys, 0, count);
+            chains = new int[count];
+            for (int i = 0; i < count; i++) {
+                chains[i] = Integer.MAX_VALUE - (int) keys[i];
+            }
+        }
+
+        // Evaluates operations from index from to root as BasicPostfixCalculator does,
+        // except for large chains, which are evaluated by chain() with their terms at nesting + 1
+        BigDecimal evaluate(int from, int root, int nesting) {
+            BigDecimal[] stack = new BigDecimal[program.getMaxStackDepth()];
+            int top = -1;
+            // the first chain which does not start before the current operation
+            int next = nesting < MAX_NESTING ? firstChain(from) : chains.length;
+            for (int i = from; i <= root; i++) {
+                while (next < chains.length && starts[chains[next]] < i) {
+                    next++;
+                }
+                if (next < chains.length && starts[chains[next]] == i) {
+                    int chain = chainWithin(next, root);
+                    if (chain >= 0) {
+                        stack[++top] = chain(chain, nesting);
+                        i = chain;
+                        continue;
+                    }
+                }
+                Opcode opcode = program.getOpcode(i);
+                if (opcode == Opcode.PUSH) {
+                    stack[++top] = program.getConstant(program.getOperand(i));
+                } else if (opcode == Opcode.LOAD) {
+                    stack[++top] = arguments[program.getOperand(i)];
+                } else if (opcode.getArity() == 1) {
+                    stack[top] = calculator.applyUnary(opcode, stack[top]);
+                } else {
+                    BigDecimal arg2 = stack[top--];
+                    stack[top] = calculator.apply(opcode, stack[top], arg2);
+                }
+            }
+            return stack[0];
+        }
+
+        private int firstChain(int from) {
+            int lo = 0;
+            int hi = chains.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[chains[mid]] < from) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Returns the outermost chain starting where the chain of the index does
+        // which is a part of the subexpression ending at the root index or -1
+        private int chainWithin(int index, int root) {
+            int start = starts[chains[index]];
+            for (int i = index; i < chains.length && starts[chains[i]] == start; i++) {
+                if (chains[i] <= root) {
+                    return chains[i];
+                }
+            }
+            return -1;
+        }
+
+        private BigDecimal chain(int root, int nesting) {
+            boolean product = program.getOpcode(root) == Opcode.MUL;
+            Terms terms = new Terms(root);
+            new TermsTask(terms, 0, terms.count, nesting + 1).invoke();
+            if (terms.failure != null) {
+                if (product) {
+                    // scales of preceding products are unknown, they could overflow before the error
+                    return evaluate(starts[root], root, MAX_NESTING);
+                }
+                throw terms.failure;
+            }
+            long[] digits = null;
+            if (product) {
+                digits = new long[terms.count + 1];
+                long scales = 0;
+                for (int i = 0; i < terms.count; i++) {
+                    digits[i + 1] = digits[i] + terms.values[i].precision();
+                    scales += Math.abs((long) terms.values[i].scale());
+                }
+                if (scales > Integer.MAX_VALUE) {
+                    // as in BigDecimal.multiply, a product might overflow in one order and not in another
+                    return evaluate(starts[root], root, MAX_NESTING);
+                }
+            }
+            return new CombineTask(terms, digits, 0, terms.count).invoke();
+        }
+
+        private boolean isChain(Opcode opcode) {
+            return opcode == Opcode.ADD || opcode == Opcode.SUB || opcode == Opcode.MUL;
+        }
+
+        private boolean isSameChain(int chain, int operand) {
+            Opcode opcode = program.getOpcode(chain);
+            Opcode operandOpcode = program.getOpcode(operand);
+            return opcode == Opcode.MUL ? operandOpcode == Opcode.MUL
+                                        : isChain(opcode) && isChain(operandOpcode) && operandOpcode != Opcode.MUL;
+        }
+
+        // Operands of a chain in order, negated ones are subtracted from a sum
+        private final class Terms {
+            int[] roots = new int[16];
+            boolean[] negated = new boolean[16];
+            int count;
+            BigDecimal[] values;
+            // the error of the first failed term
+            ArithmeticException failure;
+            private int failedTerm = Integer.MAX_VALUE;
+
+            Terms(int chain) {
+                int[] stack = new int[16];
+                boolean[] negations = new boolean[16];
+                int top = 0;
+                stack[0] = chain;
+                while (top >= 0) {
+                    int node = stack[top];
+                    boolean negation = negations[top--];
+                    if (node == chain || isSameChain(chain, node)) {
+                        if (top + 2 >= stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                            negations = Arrays.copyOf(negations, stack.length);
+                        }
+                        // the right operand ends just before the root, the left one just before the right one
+                        stack[++top] = node - 1;
+                        negations[top] = negation != (program.getOpcode(node) == Opcode.SUB);
+                        stack[++top] = starts[node - 1] - 1;
+                        negations[top] = negation;
+                    } else {
+                        add(node, negation);
+                    }
+                }
+                values = new BigDecimal[count];
+            }
+
+            private void add(int root, boolean negation) {
+                if (count == roots.length) {
+                    roots = Arrays.copyOf(roots, count * 2);
+                    negated = Arrays.copyOf(negated, count * 2);
+                }
+                roots[count] = root;
+                negated[count++] = negation;
+            }
+
+            synchronized void fail(int term, ArithmeticException e) {
+                if (term < failedTerm) {
+                    failedTerm = term;
+                    failure = e;
+                }
+            }
+        }
+
+        final class ProgramTask extends RecursiveTask<Object> {
+            @Override
+            protected Object compute() {
+                try {
+                    return evaluate(0, program.size() - 1, 0);
+                } catch (ArithmeticException e) {
+                    return e;
+                }
+            }
+        }
+
+        // Evaluates terms from index lo to hi, ranges of at least threshold operations are split in two tasks
+        private final class TermsTask extends RecursiveAction {
+            private final Terms terms;
+            private final int lo;
+            private final int hi;
+            private final int nesting;
+
+            TermsTask(Terms terms, int lo, int hi, int nesting) {
+                this.terms = terms;
+                this.lo = lo;
+                this.hi = hi;
+                this.nesting = nesting;
+            }
+
+            @Override
+            protected void compute() {
+                // terms are ordered, the only other operations in the range are operations of the chain
+                int size = terms.roots[hi - 1] - starts[terms.roots[lo]] + 1;
+                if (forking && hi - lo > 1 && size >= threshold) {
+                    int mid = (lo + hi) >>> 1;
+                    ForkJoinTask.invokeAll(new TermsTask(terms, lo, mid, nesting),
+                            new TermsTask(terms, mid, hi, nesting));
+                    return;
+                }
+                for (int i = lo; i < hi; i++) {
+                    try {
+                        terms.values[i] = term(terms.roots[i]);
+                    } catch (ArithmeticException e) {
+                        terms.fail(i, e);
+                        return;
+                    }
+                }
+            }
+
+            private BigDecimal term(int root) {
+                Opcode opcode = program.getOpcode(root);
+                if (opcode == Opcode.PUSH) {
+                    return program.getConstant(program.getOperand(root));
+                } else if (opcode == Opcode.LOAD) {
+                    return arguments[program.getOperand(root)];
+                }
+                return evaluate(starts[root], root, nesting);
+            }
+        }
+
+        // Adds or multiplies values of terms from index lo to hi in a balanced tree
+        private final class CombineTask extends RecursiveTask<BigDecimal> {
+            private final Terms terms;
+            // numbers of digits of factors from the first one up to an index, null for sums
+            private final long[] digits;
+            private final int lo;
+            private final int hi;
+
+            CombineTask(Terms terms, long[] digits, int lo, int hi) {
+                this.terms = terms;
+                this.digits = digits;
+                this.lo = lo;
+                this.hi = hi;
+            }
+
+            @Override
+            protected BigDecimal compute() {
+                // a sum costs about the same per term, a product more with every digit
+                long size = digits == null ? hi - lo : digits[hi] - digits[lo];
+                if (!forking || hi - lo == 1 || size < COMBINE_THRESHOLD) {
+                    return combine(lo, hi);
+                }
+                int mid = (lo + hi) >>> 1;
+                CombineTask left = new CombineTask(terms, digits, lo, mid);
+                left.fork();
+                BigDecimal x2 = new CombineTask(terms, digits, mid, hi).compute();
+                BigDecimal x1 = left.join();
+                return digits == null ? x1.add(x2) : x1.multiply(x2);
+            }
+
+            // Sums are exact in any order, products of similar sizes are faster
+            private BigDecimal combine(int from, int to) {
+                BigDecimal[] values = terms.values;
+                if (digits == null) {
+                    BigDecimal sum = terms.negated[from] ? values[from].negate() : values[from];
+                    for (int i = from + 1; i < to; i++) {
+                        sum = terms.negated[i] ? sum.subtract(values[i]) : sum.add(values[i]);
+                    }
+                    return sum;
+                }
+                if (to - from == 1) {
+                    return values[from];
+                }
+                int mid = (from + to) >>> 1;
+                return combine(from, mid).multiply(combine(mid, to));
+            }
+        }
+    }
+}
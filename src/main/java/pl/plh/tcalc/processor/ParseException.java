@@ -1,11 +1,40 @@
 package pl.plh.tcalc.processor;
 
+// Thrown for malformed expressions. Malformed input is as common as a correct one,
+// so the exception has no stack trace, which would cost more than the parsing itself.
 public class ParseException extends RuntimeException {
+    public static final String MESSAGE = "incorrect expression";
+
+    private final int offset;
+    private final String expected;
+
     public ParseException() {
-        super("incorrect expression");
+        this(MESSAGE);
     }
 
     public ParseException(String message) {
-        super(message);
+        this(message, -1, null);
+    }
+
+    // offset - index of the char at which the expression is malformed, its length if it ends too early
+    // expected - what should be there, e.g. "operand", "operator" or ")"
+    public ParseException(int offset, String expected) {
+        this(MESSAGE, offset, expected);
+    }
+
+    public ParseException(String message, int offset, String expected) {
+        super(message, null, false, false);
+        this.offset = offset;
+        this.expected = expected;
+    }
+
+    // Returns -1 if the offset is unknown
+    public int getOffset() {
+        return offset;
+    }
+
+    // Returns null if it is unknown what is expected
+    public String getExpected() {
+        return expected;
     }
-}
\ No newline at end of file
+}
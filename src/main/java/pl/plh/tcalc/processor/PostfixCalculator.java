@@ -3,11 +3,27 @@ package pl.plh.tcalc.processor;
 import java.math.BigDecimal;
 import java.util.List;
 
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
 public interface PostfixCalculator {
     // Decimal point of number tokens has to be a dot '.'
     // as in BigDecimal(String) constructor
     BigDecimal calculate(List<String> postfix) throws NumberFormatException;
 
+    // Calculates a compiled program, so no tokens have to be parsed
+    // Throws IllegalArgumentException if the program has variables
+    default BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, new BigDecimal[0]);
+    }
+
+    // Calculates a compiled program with values of its variables given in order of program.getVariables()
+    // Throws IllegalArgumentException if the number of arguments differs from the number of variables
+    default BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        return calculate(program.toTokens(arguments));
+    }
+
     // Returns a limit used to determine
     // - precision of division,
     // - maximal precision of final result
@@ -0,0 +1,155 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Rewrites compiled programs into equivalent ones with fewer operations:
+// - folds operations on constants, but only if the folded value is exact (has less than limit digits),
+//   so no rounding of the calculator is moved or lost and division by zero is still reported,
+// - eliminates identities: x+0, 0+x, x-0, x*1 and 1*x,
+// - replaces 0-x (the form of unary minus) with a negation and collapses double negations,
+//   but neither of them if the calculator rounds every addition, subtraction and multiplication or caps
+//   their precision (see BasicPostfixCalculator(int, int, int)), because x+0 rounds x or may exceed the cap
+//   and x alone does not,
+// - turns x+(-y) into x-y and x-(-y) into x+y.
+// Results of optimized programs are equal in value to results of original ones, only scales may differ,
+// so formatted results are identical. Operands are never reordered, so the first error is reported as before.
+// Optionally common subexpressions of rewritten programs are eliminated (see CommonSubexpressionEliminator).
+public class PostfixOptimizer {
+    private final PostfixCalculator calculator;
+    // false if identities would skip rounding or precision checks of operations
+    private final boolean identities;
+    // null if common subexpressions are not eliminated
+    private final CommonSubexpressionEliminator eliminator;
+
+    // calculator evaluates folded constants, it has to support the NEG operation of compiled programs
+    public PostfixOptimizer(PostfixCalculator calculator) {
+        this(calculator, false);
+    }
+
+    // Optimized programs use registers if common subexpressions are eliminated, so the calculator
+    // of the programs has to support STORE and RECALL operations or accept their tokens (see toTokens())
+    public PostfixOptimizer(PostfixCalculator calculator, boolean eliminateCommonSubexpressions) {
+        checkNotNull(calculator);
+        this.calculator = calculator;
+        this.identities = isExactAndUncapped(calculator);
+        this.eliminator = eliminateCommonSubexpressions ? new CommonSubexpressionEliminator() : null;
+    }
+
+    // Returns the same program instance if nothing could be optimized
+    public PostfixProgram optimize(PostfixProgram program) {
+        checkNotNull(program);
+        Rewriter rewriter = new Rewriter();
+        ExpressionNode tree = ExpressionNode.of(program, rewriter);
+        PostfixProgram rewritten = rewriter.changed ? tree.toProgram(program.getVariables()) : program;
+        return eliminator == null ? rewritten : eliminator.eliminate(rewritten).getProgram();
+    }
+
+    // Calculators of other types are assumed to add and multiply exactly without a cap
+    private static boolean isExactAndUncapped(PostfixCalculator calculator) {
+        if (calculator instanceof BasicPostfixCalculator) {
+            return ((BasicPostfixCalculator) calculator).isExactAndUncapped();
+        }
+        if (calculator instanceof TieredPostfixCalculator) {
+            return ((TieredPostfixCalculator) calculator).isExactAndUncapped();
+        }
+        if (calculator instanceof ParallelPostfixCalculator) {
+            return ((ParallelPostfixCalculator) calculator).isExactAndUncapped();
+        }
+        if (calculator instanceof CompilingPostfixCalculator) {
+            return ((CompilingPostfixCalculator) calculator).isExactAndUncapped();
+        }
+        return true;
+    }
+
+    private final class Rewriter extends ExpressionNode.Factory {
+        private boolean changed;
+
+        @Override
+        ExpressionNode unary(Opcode opcode, ExpressionNode operand) {
+            if (opcode == Opcode.NEG) {
+                if (operand.opcode == Opcode.NEG) {
+                    return rewritten(operand.left);
+                }
+                if (operand.isConstant()) {
+                    return rewritten(ExpressionNode.constant(operand.constant.negate()));
+                }
+            }
+            return super.unary(opcode, operand);
+        }
+
+        @Override
+        ExpressionNode binary(Opcode opcode, ExpressionNode left, ExpressionNode right) {
+            if (left.isConstant() && right.isConstant()) {
+                BigDecimal folded = fold(opcode, left.constant, right.constant);
+                if (folded != null) {
+                    return rewritten(ExpressionNode.constant(folded));
+                }
+            }
+            if (!identities) {
+                return binaryWithoutIdentities(opcode, left, right);
+            }
+            switch (opcode) {
+                case ADD:
+                    if (right.isConstant(BigDecimal.ZERO)) {
+                        return rewritten(left);
+                    }
+                    if (left.isConstant(BigDecimal.ZERO)) {
+                        return rewritten(right);
+                    }
+                    if (right.opcode == Opcode.NEG) {
+                        return rewritten(binary(Opcode.SUB, left, right.left));
+                    }
+                    break;
+                case SUB:
+                    if (right.isConstant(BigDecimal.ZERO)) {
+                        return rewritten(left);
+                    }
+                    if (left.isConstant(BigDecimal.ZERO)) {
+                        return rewritten(unary(Opcode.NEG, right));
+                    }
+                    if (right.opcode == Opcode.NEG) {
+                        return rewritten(binary(Opcode.ADD, left, right.left));
+                    }
+                    break;
+                case MUL:
+                    if (right.isConstant(BigDecimal.ONE)) {
+                        return rewritten(left);
+                    }
+                    if (left.isConstant(BigDecimal.ONE)) {
+                        return rewritten(right);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return super.binary(opcode, left, right);
+        }
+
+        // Only x+(-y) and x-(-y), which round once as well
+        private ExpressionNode binaryWithoutIdentities(Opcode opcode, ExpressionNode left, ExpressionNode right) {
+            if (right.opcode == Opcode.NEG && (opcode == Opcode.ADD || opcode == Opcode.SUB)) {
+                return rewritten(binary(opcode == Opcode.ADD ? Opcode.SUB : Opcode.ADD, left, right.left));
+            }
+            return super.binary(opcode, left, right);
+        }
+
+        // Returns null if the operation has to be left for the calculator
+        private BigDecimal fold(Opcode opcode, BigDecimal x1, BigDecimal x2) {
+            PostfixProgram operation = new PostfixProgram.Builder().push(x1).push(x2).operation(opcode).build();
+            try {
+                BigDecimal result = calculator.calculate(operation);
+                // a value rounded by the calculator would have exactly limit digits
+                return result.precision() < calculator.getLimit() ? result : null;
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+
+        private ExpressionNode rewritten(ExpressionNode node) {
+            changed = true;
+            return node;
+        }
+    }
+}
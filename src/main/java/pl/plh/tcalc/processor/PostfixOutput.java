@@ -0,0 +1,12 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+
+// Receiver of postfix operations in order of a program, see PostfixProgram.Builder
+interface PostfixOutput {
+    PostfixOutput push(BigDecimal constant);
+
+    PostfixOutput load(String variable);
+
+    PostfixOutput operation(Opcode opcode);
+}
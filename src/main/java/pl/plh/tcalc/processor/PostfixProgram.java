@@ -0,0 +1,319 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Compiled postfix expression: a sequence of operations, a pool of pre-parsed literals
+// and a list of variables.
+// Every PUSH operation has an operand which is an index in the constant pool
+// and every LOAD operation has an operand which is an index in the list of variables.
+// STORE and RECALL operations have operands which are indexes of registers, every register is stored once
+// before it is recalled.
+// Instances are immutable, so they may be evaluated many times and shared between threads.
+public final class PostfixProgram {
+    // every decimal of that many digits has an unscaled value within the long range
+    static final int COMPACT_PRECISION = 18;
+
+    private final Opcode[] opcodes;
+    private final int[] operands;
+    private final BigDecimal[] constants;
+    private final List<String> variables;
+    private final int maxStackDepth;
+    private final int registerCount;
+    // unscaled values of constants which have at most COMPACT_PRECISION digits
+    private final long[] compactConstants;
+    private final boolean[] compact;
+
+    private PostfixProgram(Opcode[] opcodes, int[] operands, BigDecimal[] constants, List<String> variables,
+                           int maxStackDepth, int registerCount) {
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.constants = constants;
+        this.variables = variables;
+        this.maxStackDepth = maxStackDepth;
+        this.registerCount = registerCount;
+        this.compactConstants = new long[constants.length];
+        this.compact = new boolean[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i].precision() <= COMPACT_PRECISION) {
+                compactConstants[i] = constants[i].unscaledValue().longValue();
+                compact[i] = true;
+            }
+        }
+    }
+
+    // Compiles a List of String postfix tokens where decimals have standard java form with '.' as a decimal point
+    // and tokens starting with a letter or '_' are variables
+    // Throws NumberFormatException if a token is neither an operator, a variable nor a decimal
+    public static PostfixProgram of(List<String> postfix) {
+        checkNotNull(postfix);
+        Builder builder = new Builder();
+        for (String token : postfix) {
+            Opcode opcode = Opcode.ofSymbol(token);
+            if (opcode != null) {
+                builder.operation(opcode);
+            } else if (!token.isEmpty() && Lexer.isIdentifierStart(token.charAt(0))) {
+                builder.load(token);
+            } else {
+                builder.push(new BigDecimal(token));
+            }
+        }
+        return builder.build();
+    }
+
+    // Creates a program of decoded operations, e.g. read by ProgramLibrary, validated as Builder does
+    // Arrays are not copied.
+    // Throws IllegalStateException if an operand is out of range or operations do not leave
+    // exactly one value on the stack
+    static PostfixProgram of(Opcode[] opcodes, int[] operands, BigDecimal[] constants, List<String> variables) {
+        int depth = 0;
+        int maxDepth = 0;
+        int registerCount = 0;
+        for (int i = 0; i < opcodes.length; i++) {
+            int operand = operands[i];
+            switch (opcodes[i]) {
+                case PUSH:
+                    checkOperand(operand, constants.length, i);
+                    break;
+                case LOAD:
+                    checkOperand(operand, variables.size(), i);
+                    break;
+                case STORE:
+                    checkOperand(operand, registerCount + 1, i);
+                    registerCount = Math.max(registerCount, operand + 1);
+                    break;
+                case RECALL:
+                    checkOperand(operand, registerCount, i);
+                    break;
+                default:
+            }
+            depth -= opcodes[i].getArity();
+            if (depth < 0) {
+                throw new IllegalStateException("stack underflow");
+            }
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+        if (depth != 1) {
+            throw new IllegalStateException("stack.size() != 1");
+        }
+        return new PostfixProgram(opcodes, operands, constants, variables, maxDepth, registerCount);
+    }
+
+    private static void checkOperand(int operand, int bound, int index) {
+        if (operand < 0 || operand >= bound) {
+            throw new IllegalStateException("operand " + operand + " of operation " + index + " out of range");
+        }
+    }
+
+    public int size() {
+        return opcodes.length;
+    }
+
+    public Opcode getOpcode(int index) {
+        return opcodes[index];
+    }
+
+    // Returns an index in the constant pool for PUSH operations,
+    // an index in the list of variables for LOAD operations
+    // and an index of a register for STORE and RECALL operations
+    public int getOperand(int index) {
+        return operands[index];
+    }
+
+    public BigDecimal getConstant(int index) {
+        return constants[index];
+    }
+
+    // Returns true if an unscaled value of the constant is available as a long
+    boolean isCompactConstant(int index) {
+        return compact[index];
+    }
+
+    // Returns an unscaled value of the constant, valid only if isCompactConstant(index)
+    long getCompactConstant(int index) {
+        return compactConstants[index];
+    }
+
+    public int getConstantCount() {
+        return constants.length;
+    }
+
+    // Returns names of variables in order of their first occurrence
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    public int getVariableCount() {
+        return variables.size();
+    }
+
+    // Throws IllegalArgumentException if arguments do not match variables of the program
+    public void checkArguments(BigDecimal[] arguments) {
+        checkNotNull(arguments);
+        if (arguments.length != variables.size()) {
+            throw new IllegalArgumentException(String.format("%1$d arguments given for variables %2$s",
+                    arguments.length, variables));
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] == null) {
+                throw new IllegalArgumentException("missing value of " + variables.get(i));
+            }
+        }
+    }
+
+    // Returns the maximal number of values on the stack during an evaluation
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    // Returns a List of String postfix tokens where decimals have standard java form with '.' as a decimal point
+    // Recalled registers are expanded to tokens of their subexpressions, so every operation
+    // of the postfix expression is written out.
+    public List<String> toTokens() {
+        return toTokens(null);
+    }
+
+    // The same as toTokens(), but variables are replaced with plain strings of the arguments if they are given
+    List<String> toTokens(BigDecimal[] arguments) {
+        List<String> tokens = new ArrayList<>(opcodes.length);
+        // indexes of the first tokens of values on the stack
+        int[] starts = new int[maxStackDepth];
+        int top = -1;
+        List<List<String>> registers = new ArrayList<>(registerCount);
+        for (int i = 0; i < opcodes.length; i++) {
+            switch (opcodes[i]) {
+                case PUSH:
+                    starts[++top] = tokens.size();
+                    tokens.add(constants[operands[i]].toPlainString());
+                    break;
+                case LOAD:
+                    starts[++top] = tokens.size();
+                    tokens.add(arguments == null ? variables.get(operands[i]) : arguments[operands[i]].toPlainString());
+                    break;
+                case STORE:
+                    registers.add(new ArrayList<>(tokens.subList(starts[top], tokens.size())));
+                    break;
+                case RECALL:
+                    starts[++top] = tokens.size();
+                    tokens.addAll(registers.get(operands[i]));
+                    break;
+                default:
+                    top -= opcodes[i].getArity() - 1;
+                    tokens.add(opcodes[i].getSymbol());
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(" ", toTokens());
+    }
+
+    public static final class Builder implements PostfixOutput {
+        private Opcode[] opcodes = new Opcode[16];
+        private int[] operands = new int[16];
+        private BigDecimal[] constants = new BigDecimal[8];
+        private final List<String> variables = new ArrayList<>();
+        private int size;
+        private int constantCount;
+        private int registerCount;
+        private int depth;
+        private int maxDepth;
+
+        @Override
+        public Builder push(BigDecimal constant) {
+            checkNotNull(constant);
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = constant;
+            add(Opcode.PUSH, constantCount++);
+            return this;
+        }
+
+        // Variables of the same name share an index
+        @Override
+        public Builder load(String variable) {
+            checkNotNull(variable);
+            int index = variables.indexOf(variable);
+            if (index < 0) {
+                index = variables.size();
+                variables.add(variable);
+            }
+            add(Opcode.LOAD, index);
+            return this;
+        }
+
+        // Adds a variable without loading it, so variables may keep an order of another program
+        public Builder declare(String variable) {
+            checkNotNull(variable);
+            if (!variables.contains(variable)) {
+                variables.add(variable);
+            }
+            return this;
+        }
+
+        @Override
+        public Builder operation(Opcode opcode) {
+            checkNotNull(opcode);
+            // only operators have symbols
+            if (opcode.getSymbol() == null) {
+                throw new IllegalArgumentException(opcode + " requires an operand");
+            }
+            add(opcode, 0);
+            return this;
+        }
+
+        // Copies the value on the top of the stack to a new register
+        // Returns an index of the register
+        int store() {
+            add(Opcode.STORE, registerCount);
+            return registerCount++;
+        }
+
+        // Throws IllegalArgumentException if the register has not been stored yet
+        Builder recall(int register) {
+            if (register < 0 || register >= registerCount) {
+                throw new IllegalArgumentException("register " + register + " not stored");
+            }
+            add(Opcode.RECALL, register);
+            return this;
+        }
+
+        // Throws IllegalStateException if operations do not leave exactly one value on the stack
+        public PostfixProgram build() {
+            if (depth != 1) {
+                throw new IllegalStateException("stack.size() != 1");
+            }
+            return new PostfixProgram(Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size),
+                    Arrays.copyOf(constants, constantCount),
+                    Collections.unmodifiableList(new ArrayList<>(variables)), maxDepth, registerCount);
+        }
+
+        private void add(Opcode opcode, int operand) {
+            depth -= opcode.getArity();
+            if (depth < 0) {
+                throw new IllegalStateException("stack underflow");
+            }
+            if (++depth > maxDepth) {
+                maxDepth = depth;
+            }
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            opcodes[size] = opcode;
+            operands[size++] = operand;
+        }
+    }
+}
@@ -1,30 +1,371 @@
 package pl.plh.tcalc.processor;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
 import static pl.plh.tcalc.GenericValidator.*;
 
+// Processor is safe for concurrent use if its converter and calculator are,
+// which is the case for ShuntingYard and BasicPostfixCalculator.
 public class Processor {
+    private static final int MAX_CHUNK_SIZE = 256;
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+
     private final InfixPostfixConverter ipConverter;
+    private final PostfixOptimizer pOptimizer;
     private final PostfixCalculator pCalculator;
     private final ResultFormatter formatter;
+    private final ProcessorCache cache;
+    private final ProcessorMetrics metrics;
 
     public Processor(InfixPostfixConverter converter, PostfixCalculator calculator) {
+        this(converter, calculator, null);
+    }
+
+    // cache may be null, then nothing is cached
+    public Processor(InfixPostfixConverter converter, PostfixCalculator calculator, ProcessorCache cache) {
+        this(converter, null, calculator, cache);
+    }
+
+    // optimizer may be null, then programs are calculated as they are converted
+    // cache may be null, then nothing is cached, otherwise optimized programs are cached
+    public Processor(InfixPostfixConverter converter, PostfixOptimizer optimizer, PostfixCalculator calculator,
+                     ProcessorCache cache) {
+        this(converter, optimizer, calculator, cache, null);
+    }
+
+    // metrics may be null, then nothing is measured
+    public Processor(InfixPostfixConverter converter, PostfixOptimizer optimizer, PostfixCalculator calculator,
+                     ProcessorCache cache, ProcessorMetrics metrics) {
         checkNotNull(converter);
         checkNotNull(calculator);
         this.ipConverter = converter;
+        this.pOptimizer = optimizer;
         this.pCalculator = calculator;
         this.formatter = new ResultFormatter();
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    // Returns null if there is no cache
+    public ProcessorCache getCache() {
+        return cache;
     }
 
+    // Returns null if there are no metrics
+    public ProcessorMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Variables are not allowed here, an expression containing them is incorrect
     public String process(String inputData) {
         checkNotBlank(inputData, "missing input data");
+        if (metrics == null) {
+            return processOrGetCached(inputData);
+        }
+        long start = System.nanoTime();
+        String result = processOrGetCached(inputData);
+        metrics.recordProcess(System.nanoTime() - start);
+        return result;
+    }
+
+    // The same as process(String), but the result tells a value from an error without parsing it,
+    // see Result. Nothing is thrown for malformed expressions, whose errors are as cheap as values.
+    // Results are not cached, compiled programs are.
+    public Result evaluate(String inputData) {
+        checkNotNull(inputData);
+        long start = metrics == null ? 0 : System.nanoTime();
+        Result result;
         try {
-            return formatter.format(pCalculator.calculate(ipConverter.convert(inputData)), pCalculator.getLimit());
+            if (inputData.trim().isEmpty()) {
+                throw new ParseException(inputData.length(), "operand");
+            }
+            PostfixProgram program = compileConstantProgram(inputData);
+            if (metrics == null) {
+                BigDecimal value = pCalculator.calculate(program, NO_ARGUMENTS);
+                result = Result.ofValue(value, formatter.format(value, pCalculator.getLimit()));
+            } else {
+                long compiled = System.nanoTime();
+                BigDecimal value = pCalculator.calculate(program, NO_ARGUMENTS);
+                long calculated = System.nanoTime();
+                metrics.recordCalculate(calculated - compiled);
+                result = Result.ofValue(value, formatter.format(value, pCalculator.getLimit()));
+                metrics.recordFormat(System.nanoTime() - calculated);
+            }
+            recordSuccess();
+        } catch (ParseException e) {
+            recordError(e);
+            result = Result.ofError(e);
+        } catch (ArithmeticException e) {
+            recordError(e);
+            result = Result.ofError(e);
+        }
+        if (metrics != null) {
+            metrics.recordProcess(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    // Processes independent expressions in parallel on the common ForkJoinPool
+    // Returns results in order of inputData, blank expressions have empty results
+    public List<String> processAll(List<String> inputData) {
+        return processAll(inputData, ForkJoinPool.commonPool());
+    }
+
+    public List<String> processAll(List<String> inputData, Executor executor) {
+        checkNotNull(inputData);
+        int maxPendingChunks = 4 * Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, inputData.size() / maxPendingChunks));
+        List<String> results = new ArrayList<>(inputData.size());
+        processAll(inputData.iterator(), results::add, executor, maxPendingChunks, chunkSize);
+        return results;
+    }
+
+    // Streams expressions in chunks of chunkSize to the executor and passes results to the consumer
+    // in order of inputData. Both inputData and the consumer are used only by the calling thread.
+    // At most maxPendingChunks chunks are processed or wait for the consumer at a time, then the calling thread
+    // waits for the oldest one, so memory use does not depend on the number of expressions.
+    public void processAll(Iterator<String> inputData, Consumer<? super String> consumer, Executor executor,
+                           int maxPendingChunks, int chunkSize) {
+        checkNotNull(inputData);
+        checkNotNull(consumer);
+        checkNotNull(executor);
+        checkMin(maxPendingChunks, 1);
+        checkMin(chunkSize, 1);
+        Deque<CompletableFuture<String[]>> pending = new ArrayDeque<>(maxPendingChunks);
+        while (inputData.hasNext()) {
+            String[] chunk = new String[chunkSize];
+            int size = 0;
+            while (size < chunkSize && inputData.hasNext()) {
+                chunk[size++] = inputData.next();
+            }
+            String[] expressions = size == chunkSize ? chunk : Arrays.copyOf(chunk, size);
+            pending.add(CompletableFuture.supplyAsync(() -> processChunk(expressions), executor));
+            if (pending.size() == maxPendingChunks) {
+                consumeChunk(pending.poll(), consumer);
+            }
+        }
+        while (!pending.isEmpty()) {
+            consumeChunk(pending.poll(), consumer);
+        }
+    }
+
+    // Parses inputData once, so the returned expression may be evaluated many times with different variables
+    // Throws pl.plh.tcalc.processor.ParseException if inputData is malformed
+    public CompiledExpression compile(String inputData) {
+        checkNotBlank(inputData, "missing input data");
+        return new CompiledExpression(this, compileProgram(inputData));
+    }
+
+    // Evaluates a program compiled before, e.g. read from a ProgramLibrary, without parsing it again
+    public CompiledExpression compile(PostfixProgram program) {
+        checkNotNull(program);
+        return new CompiledExpression(this, program);
+    }
+
+    // for use only inside CompiledExpression
+    BigDecimal calculate(PostfixProgram program, BigDecimal[] arguments) {
+        if (metrics == null) {
+            return pCalculator.calculate(program, arguments);
+        }
+        program.checkArguments(arguments);
+        long start = System.nanoTime();
+        BigDecimal result;
+        try {
+            result = pCalculator.calculate(program, arguments);
+        } catch (RuntimeException e) {
+            metrics.recordError(e);
+            throw e;
+        }
+        metrics.recordCalculate(System.nanoTime() - start);
+        metrics.recordSuccess();
+        return result;
+    }
+
+    // for use only inside CompiledExpression
+    String evaluate(PostfixProgram program, BigDecimal[] arguments) {
+        program.checkArguments(arguments);
+        try {
+            String result = calculateAndFormat(program, arguments);
+            recordSuccess();
+            return result;
+        } catch (ArithmeticException e) {
+            recordError(e);
+            return e.getMessage();
+        } catch (Exception e) {
+            recordError(e);
+            System.err.println("unexpected error");
+            System.err.println();
+            throw e;
+        }
+    }
+
+    // for use only inside CompiledExpression
+    void evaluate(PostfixProgram program, BigDecimal[] arguments, Appendable out) throws IOException {
+        program.checkArguments(arguments);
+        try {
+            calculateAndFormat(program, arguments, out);
+            recordSuccess();
+        } catch (ArithmeticException e) {
+            recordError(e);
+            out.append(e.getMessage());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            recordError(e);
+            System.err.println("unexpected error");
+            System.err.println();
+            throw e;
+        }
+    }
+
+    // for use only inside Session
+    String format(BigDecimal result) {
+        return formatter.format(result, pCalculator.getLimit());
+    }
+
+    private String processOrGetCached(String inputData) {
+        if (cache == null) {
+            return calculateAndFormat(inputData);
+        }
+        return cache.getResult(inputData, DecimalSeparators.ofDefault(), pCalculator.getLimit(),
+            this::calculateAndFormat);
+    }
+
+    private String calculateAndFormat(String inputData) {
+        try {
+            PostfixProgram program = compileConstantProgram(inputData);
+            String result = calculateAndFormat(program, NO_ARGUMENTS);
+            recordSuccess();
+            return result;
         } catch (ParseException | ArithmeticException e) {
+            recordError(e);
             return e.getMessage();
         } catch (Exception e) {
+            recordError(e);
             System.err.println("unexpected error");
             System.err.println();
             throw e;
         }
     }
+
+    private String calculateAndFormat(PostfixProgram program, BigDecimal[] arguments) {
+        if (metrics == null) {
+            return formatter.format(pCalculator.calculate(program, arguments), pCalculator.getLimit());
+        }
+        long start = System.nanoTime();
+        BigDecimal result = pCalculator.calculate(program, arguments);
+        long calculated = System.nanoTime();
+        metrics.recordCalculate(calculated - start);
+        String formatted = formatter.format(result, pCalculator.getLimit());
+        metrics.recordFormat(System.nanoTime() - calculated);
+        return formatted;
+    }
+
+    private void calculateAndFormat(PostfixProgram program, BigDecimal[] arguments, Appendable out)
+            throws IOException {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (metrics == null) {
+            formatter.format(pCalculator.calculate(program, arguments), pCalculator.getLimit(), locale, out);
+            return;
+        }
+        long start = System.nanoTime();
+        BigDecimal result = pCalculator.calculate(program, arguments);
+        long calculated = System.nanoTime();
+        metrics.recordCalculate(calculated - start);
+        formatter.format(result, pCalculator.getLimit(), locale, out);
+        metrics.recordFormat(System.nanoTime() - calculated);
+    }
+
+    private void recordSuccess() {
+        if (metrics != null) {
+            metrics.recordSuccess();
+        }
+    }
+
+    private void recordError(Exception e) {
+        if (metrics != null) {
+            metrics.recordError(e);
+        }
+    }
+
+    // replaces expressions with results
+    private String[] processChunk(String[] expressions) {
+        for (int i = 0; i < expressions.length; i++) {
+            String expression = expressions[i];
+            expressions[i] = expression == null || expression.trim().isEmpty() ? "" : process(expression);
+        }
+        return expressions;
+    }
+
+    private static void consumeChunk(CompletableFuture<String[]> chunk, Consumer<? super String> consumer) {
+        String[] results;
+        try {
+            results = chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        for (String result : results) {
+            consumer.accept(result);
+        }
+    }
+
+    // Variables are not allowed, the first one is reported as a malformed part of inputData
+    private PostfixProgram compileConstantProgram(String inputData) {
+        PostfixProgram program = compileProgram(inputData);
+        if (program.getVariableCount() != 0) {
+            throw new ParseException(offsetOf(inputData, program.getVariables().get(0)), "number");
+        }
+        return program;
+    }
+
+    // Returns an index of the identifier in the infix
+    private static int offsetOf(String infix, String identifier) {
+        int i = 0;
+        while (i < infix.length()) {
+            if (!Lexer.isIdentifierStart(infix.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < infix.length() && Lexer.isIdentifierPart(infix.charAt(i))) {
+                i++;
+            }
+            if (infix.regionMatches(start, identifier, 0, identifier.length()) && i - start == identifier.length()) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private PostfixProgram compileProgram(String inputData) {
+        if (cache == null) {
+            return convertAndOptimize(inputData);
+        }
+        return cache.getProgram(inputData, DecimalSeparators.ofDefault(), this::convertAndOptimize);
+    }
+
+    private PostfixProgram convertAndOptimize(String inputData) {
+        if (metrics == null) {
+            return convertAndOptimizeUnmeasured(inputData);
+        }
+        long start = System.nanoTime();
+        PostfixProgram program = convertAndOptimizeUnmeasured(inputData);
+        metrics.recordConvert(System.nanoTime() - start);
+        return program;
+    }
+
+    private PostfixProgram convertAndOptimizeUnmeasured(String inputData) {
+        PostfixProgram program = ipConverter.compile(inputData);
+        return pOptimizer == null ? program : pOptimizer.optimize(program);
+    }
 }
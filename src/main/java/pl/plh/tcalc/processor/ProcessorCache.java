@@ -0,0 +1,114 @@
+package pl.plh.tcalc.processor;
+
+import java.util.function.Function;
+
+import static pl.plh.tcalc.GenericValidator.checkMin;
+
+// Bounded least recently used cache of a Processor with two levels:
+// - compiled programs keyed on the normalized expression and the decimal separator,
+// - formatted results keyed additionally on the limit of the calculator.
+// An expression is normalized by removing whitespaces which do not separate two numbers or identifiers,
+// so "1 + 2" and "1+2" share entries, but "1 2" and "12" do not. A missing program is compiled
+// from the expression as given, so offsets of its errors point into it.
+// The cache is safe for concurrent callers. It should not be shared by processors with different converters.
+public final class ProcessorCache {
+    private final LruCache<Key, PostfixProgram> programs;
+    private final LruCache<Key, String> results;
+
+    public ProcessorCache(int maxSize) {
+        this(maxSize, maxSize);
+    }
+
+    public ProcessorCache(int maxPrograms, int maxResults) {
+        checkMin(maxPrograms, 1);
+        checkMin(maxResults, 1);
+        this.programs = new LruCache<>(maxPrograms);
+        this.results = new LruCache<>(maxResults);
+    }
+
+    public CacheStats getProgramStats() {
+        return programs.getStats();
+    }
+
+    public CacheStats getResultStats() {
+        return results.getStats();
+    }
+
+    public void clear() {
+        programs.clear();
+        results.clear();
+    }
+
+    PostfixProgram getProgram(String input, char decimalSeparator, Function<String, PostfixProgram> compiler) {
+        return programs.get(new Key(normalize(input, decimalSeparator), decimalSeparator, 0),
+            key -> compiler.apply(input));
+    }
+
+    String getResult(String input, char decimalSeparator, int limit, Function<String, String> processor) {
+        return results.get(new Key(normalize(input, decimalSeparator), decimalSeparator, limit),
+            key -> processor.apply(key.expression));
+    }
+
+    static String normalize(String input, char decimalSeparator) {
+        StringBuilder normalized = null;
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (!Lexer.isWhitespace(c)) {
+                if (normalized != null) {
+                    normalized.append(c);
+                }
+                continue;
+            }
+            if (normalized == null) {
+                normalized = new StringBuilder(length).append(input, 0, i);
+            }
+            int next = i + 1;
+            while (next < length && Lexer.isWhitespace(input.charAt(next))) {
+                next++;
+            }
+            if (i > 0 && next < length && isWordPart(input.charAt(i - 1), decimalSeparator)
+                    && isWordPart(input.charAt(next), decimalSeparator)) {
+                normalized.append(' ');
+            }
+            i = next - 1;
+        }
+        return normalized == null ? input : normalized.toString();
+    }
+
+    // numbers and identifiers consist of these chars
+    private static boolean isWordPart(char c, char decimalSeparator) {
+        return Lexer.isIdentifierPart(c) || c == decimalSeparator;
+    }
+
+    private static final class Key {
+        private final String expression;
+        private final char decimalSeparator;
+        private final int limit;
+        private final int hash;
+
+        Key(String expression, char decimalSeparator, int limit) {
+            this.expression = expression;
+            this.decimalSeparator = decimalSeparator;
+            this.limit = limit;
+            this.hash = (expression.hashCode() * 31 + decimalSeparator) * 31 + limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return decimalSeparator == key.decimalSeparator && limit == key.limit && expression.equals(key.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
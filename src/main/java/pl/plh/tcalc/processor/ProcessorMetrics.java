@@ -0,0 +1,150 @@
+package pl.plh.tcalc.processor;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import static pl.plh.tcalc.GenericValidator.checkNotBlank;
+
+// Counters and latency histograms of a Processor, which records them only if it is given metrics,
+// otherwise the only cost is a null check per phase. Phases are:
+// - convert: conversion of an expression into a program, including optimization,
+// - calculate: calculation of a program,
+// - format: formatting of a result,
+// - process: the whole Processor.process(String) call, also when the result comes from a cache.
+// Programs and results served by a cache skip their phases and outcomes, see cache stats for them.
+// Metrics are safe for concurrent recording and may be shared by processors.
+public class ProcessorMetrics implements ProcessorMetricsMXBean {
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder arithmeticErrors = new LongAdder();
+    private final LongAdder unexpectedErrors = new LongAdder();
+    private final LatencyHistogram convert = new LatencyHistogram();
+    private final LatencyHistogram calculate = new LatencyHistogram();
+    private final LatencyHistogram format = new LatencyHistogram();
+    private final LatencyHistogram process = new LatencyHistogram();
+    private ObjectName objectName;
+
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(successes.sum(), parseErrors.sum(), arithmeticErrors.sum(),
+                unexpectedErrors.sum(), convert.getStats(), calculate.getStats(), format.getStats(),
+                process.getStats());
+    }
+
+    // Registers metrics in the platform MBeanServer as pl.plh.tcalc:type=ProcessorMetrics,name=<name>
+    // Throws IllegalStateException if registration fails, e.g. the name is already taken
+    public synchronized ObjectName register(String name) {
+        checkNotBlank(name, "missing name");
+        if (objectName != null) {
+            throw new IllegalStateException("already registered as " + objectName);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("pl.plh.tcalc:type=ProcessorMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register metrics " + name, e);
+        }
+    }
+
+    // Does nothing if metrics are not registered
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister metrics " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getParseErrorCount() {
+        return parseErrors.sum();
+    }
+
+    @Override
+    public long getArithmeticErrorCount() {
+        return arithmeticErrors.sum();
+    }
+
+    @Override
+    public long getUnexpectedErrorCount() {
+        return unexpectedErrors.sum();
+    }
+
+    @Override
+    public LatencyStats getConvertLatency() {
+        return convert.getStats();
+    }
+
+    @Override
+    public LatencyStats getCalculateLatency() {
+        return calculate.getStats();
+    }
+
+    @Override
+    public LatencyStats getFormatLatency() {
+        return format.getStats();
+    }
+
+    @Override
+    public LatencyStats getProcessLatency() {
+        return process.getStats();
+    }
+
+    @Override
+    public void reset() {
+        successes.reset();
+        parseErrors.reset();
+        arithmeticErrors.reset();
+        unexpectedErrors.reset();
+        convert.reset();
+        calculate.reset();
+        format.reset();
+        process.reset();
+    }
+
+    void recordConvert(long nanos) {
+        convert.record(nanos);
+    }
+
+    void recordCalculate(long nanos) {
+        calculate.record(nanos);
+    }
+
+    void recordFormat(long nanos) {
+        format.record(nanos);
+    }
+
+    void recordProcess(long nanos) {
+        process.record(nanos);
+    }
+
+    void recordSuccess() {
+        successes.increment();
+    }
+
+    // Counts the error as a parse, arithmetic or unexpected one
+    void recordError(Exception e) {
+        if (e instanceof ParseException) {
+            parseErrors.increment();
+        } else if (e instanceof ArithmeticException) {
+            arithmeticErrors.increment();
+        } else {
+            unexpectedErrors.increment();
+        }
+    }
+}
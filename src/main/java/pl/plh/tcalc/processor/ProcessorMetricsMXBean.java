@@ -0,0 +1,22 @@
+package pl.plh.tcalc.processor;
+
+// Management interface of ProcessorMetrics, latencies are exposed as composite data
+public interface ProcessorMetricsMXBean {
+    long getSuccessCount();
+
+    long getParseErrorCount();
+
+    long getArithmeticErrorCount();
+
+    long getUnexpectedErrorCount();
+
+    LatencyStats getConvertLatency();
+
+    LatencyStats getCalculateLatency();
+
+    LatencyStats getFormatLatency();
+
+    LatencyStats getProcessLatency();
+
+    void reset();
+}
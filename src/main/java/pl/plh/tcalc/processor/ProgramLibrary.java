@@ -0,0 +1,154 @@
+package pl.plh.tcalc.processor;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Library of compiled programs written by ProgramLibraryWriter, read directly from a memory-mapped file.
+// Opening a library reads only its header and index, a program is decoded on its first get(int),
+// so starting with a large library costs as much as reading the programs which are used.
+// Instances are safe for use by many threads.
+public final class ProgramLibrary {
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    private final ByteBuffer buffer;
+    private final int indexOffset;
+    // decoded programs, which are immutable, so a race decodes a program twice at worst
+    private final PostfixProgram[] programs;
+
+    private ProgramLibrary(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int limit = buffer.limit();
+        if (limit < ProgramLibraryWriter.HEADER_SIZE + ProgramLibraryWriter.FOOTER_SIZE
+                || buffer.getInt(0) != ProgramLibraryWriter.MAGIC) {
+            throw new IOException("not a program library");
+        }
+        if (buffer.getInt(4) != ProgramLibraryWriter.VERSION) {
+            throw new IOException("unsupported version " + buffer.getInt(4));
+        }
+        int count = buffer.getInt(limit - 8);
+        indexOffset = buffer.getInt(limit - 4);
+        if (count < 0 || indexOffset < ProgramLibraryWriter.HEADER_SIZE
+                || (long) indexOffset + (long) count * 4 != limit - ProgramLibraryWriter.FOOTER_SIZE) {
+            throw new IOException("corrupted program library");
+        }
+        programs = new PostfixProgram[count];
+    }
+
+    // The file is mapped, not read, it should not be modified while the library is used
+    public static ProgramLibrary open(Path file) throws IOException {
+        checkNotNull(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("not a program library");
+            }
+            // a mapping stays valid after its channel is closed
+            return new ProgramLibrary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Reads a library from a buffer between its position and limit
+    public static ProgramLibrary of(ByteBuffer buffer) throws IOException {
+        checkNotNull(buffer);
+        return new ProgramLibrary(buffer.slice());
+    }
+
+    public int size() {
+        return programs.length;
+    }
+
+    // Throws IndexOutOfBoundsException if there is no such program
+    // Throws IllegalStateException if the program is corrupted
+    public PostfixProgram get(int index) {
+        PostfixProgram program = programs[index];
+        if (program == null) {
+            program = decode(index);
+            programs[index] = program;
+        }
+        return program;
+    }
+
+    private PostfixProgram decode(int index) {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            in.position(buffer.getInt(indexOffset + index * 4));
+            in.limit(index + 1 < programs.length ? buffer.getInt(indexOffset + index * 4 + 4) : indexOffset);
+            String[] variables = new String[readCount(in)];
+            for (int i = 0; i < variables.length; i++) {
+                byte[] bytes = new byte[readCount(in)];
+                in.get(bytes);
+                variables[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            BigDecimal[] constants = new BigDecimal[readCount(in)];
+            for (int i = 0; i < constants.length; i++) {
+                constants[i] = readDecimal(in);
+            }
+            Opcode[] opcodes = new Opcode[readCount(in)];
+            int[] operands = new int[opcodes.length];
+            int registerCount = 0;
+            for (int i = 0; i < opcodes.length; i++) {
+                opcodes[i] = OPCODES[in.get()];
+                if (opcodes[i] == Opcode.PUSH || opcodes[i] == Opcode.LOAD || opcodes[i] == Opcode.RECALL) {
+                    operands[i] = readVarInt(in);
+                } else if (opcodes[i] == Opcode.STORE) {
+                    operands[i] = registerCount++;
+                }
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalStateException("trailing bytes");
+            }
+            return PostfixProgram.of(opcodes, operands, constants,
+                    Collections.unmodifiableList(Arrays.asList(variables)));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("corrupted program " + index, e);
+        }
+    }
+
+    // Unscaled values of up to 8 bytes are read without BigInteger, as compact as parsed literals
+    private static BigDecimal readDecimal(ByteBuffer in) {
+        int zigzag = readVarInt(in);
+        int scale = (zigzag >>> 1) ^ -(zigzag & 1);
+        int length = readCount(in);
+        if (length > 0 && length <= 8) {
+            // sign extension of the first byte
+            long unscaled = in.get();
+            for (int i = 1; i < length; i++) {
+                unscaled = unscaled << 8 | (in.get() & 0xFF);
+            }
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+        byte[] unscaled = new byte[length];
+        in.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    // Every counted item takes a byte at least, so a corrupted count never allocates more than the file
+    private static int readCount(ByteBuffer in) {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalStateException("count out of range");
+        }
+        return count;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+}
@@ -0,0 +1,130 @@
+package pl.plh.tcalc.processor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Writes compiled programs in the binary format read by ProgramLibrary, so a library of formulas
+// is parsed once instead of on every start.
+// Programs are written as they are given and their offsets are written by close(), after the last program.
+// Format (big-endian, "varint" is an unsigned LEB128 int, "zigzag" a signed one):
+//   header:  int MAGIC, int VERSION
+//   program: varint variable count, variables as varint UTF-8 length and bytes,
+//            varint constant count, constants as zigzag scale, varint length and bytes of the unscaled value,
+//            varint operation count, operations as a byte of the Opcode ordinal followed by
+//            a varint operand for PUSH, LOAD and RECALL
+//   index:   int offset of every program
+//   footer:  int program count, int offset of the index
+// VERSION changes whenever the format or the order of Opcode constants changes.
+public final class ProgramLibraryWriter implements Closeable {
+    static final int MAGIC = 0x54434C42;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 8;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream program = new ByteArrayOutputStream(256);
+    private int[] offsets = new int[64];
+    private int count;
+    private long size;
+    private boolean closed;
+
+    // The stream is closed by close()
+    public ProgramLibraryWriter(OutputStream out) throws IOException {
+        checkNotNull(out);
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        size = HEADER_SIZE;
+    }
+
+    public ProgramLibraryWriter(Path file) throws IOException {
+        this(Files.newOutputStream(file));
+    }
+
+    // Returns an index of the program in the library
+    // Throws IOException if the library would exceed 2 GiB, which is the limit of a mapped buffer
+    public int write(PostfixProgram program) throws IOException {
+        checkNotNull(program);
+        if (closed) {
+            throw new IllegalStateException("writer closed");
+        }
+        this.program.reset();
+        encode(program, this.program);
+        if (size + this.program.size() + (long) (count + 1) * 4 + FOOTER_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("library too large");
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count] = (int) size;
+        this.program.writeTo(out);
+        size += this.program.size();
+        return count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Writes the index of programs and closes the stream
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offsets[i]);
+            }
+            out.writeInt(count);
+            out.writeInt((int) size);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void encode(PostfixProgram program, ByteArrayOutputStream out) {
+        writeVarInt(out, program.getVariableCount());
+        for (String variable : program.getVariables()) {
+            byte[] bytes = variable.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarInt(out, program.getConstantCount());
+        for (int i = 0; i < program.getConstantCount(); i++) {
+            BigDecimal constant = program.getConstant(i);
+            byte[] unscaled = constant.unscaledValue().toByteArray();
+            writeVarInt(out, (constant.scale() << 1) ^ (constant.scale() >> 31));
+            writeVarInt(out, unscaled.length);
+            out.write(unscaled, 0, unscaled.length);
+        }
+        writeVarInt(out, program.size());
+        for (int i = 0; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            out.write(opcode.ordinal());
+            if (opcode == Opcode.PUSH || opcode == Opcode.LOAD || opcode == Opcode.RECALL) {
+                writeVarInt(out, program.getOperand(i));
+            }
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
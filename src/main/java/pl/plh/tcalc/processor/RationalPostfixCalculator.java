@@ -0,0 +1,271 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.List;
+
+import static java.math.RoundingMode.HALF_UP;
+import static pl.plh.tcalc.GenericValidator.*;
+
+// Calculator of exact fractions: values are BigInteger numerators and denominators times powers of ten,
+// so additions, subtractions, multiplications, divisions, integer powers, min, max and abs never round.
+// A result is divided and rounded once, at the end, to limit digits. A result which is a terminating
+// decimal of at most limit digits is exact, e.g. 1/3*3 is 1 and 1/8 is 0.125.
+// Powers of ten of decimal literals are kept as exponents, like scales of BigDecimal, so they never meet
+// in numerators and denominators. Fractions are reduced lazily: a fraction is divided by the GCD of its
+// numerator and denominator only when it has grown to twice as many bits as after its last reduction,
+// so a chain of operations pays for a few GCDs instead of one per operation. The final result is not
+// reduced, a single remainder tells if it is a terminating decimal.
+// Scales of literals are not kept, results have the smallest scales of their values.
+// Values of exponents more than 65536 apart, e.g. 1E+100000+1, are not added or compared.
+// Functions and powers with non-integer or large exponents are computed by BigMath from decimals
+// of limit + GUARD_DIGITS digits, so they round as the decimal calculators do.
+public class RationalPostfixCalculator implements PostfixCalculator {
+    public static final int GUARD_DIGITS = 10;
+
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+    private static final BigInteger FIVE = BigInteger.valueOf(5);
+    private static final BigInteger FIVE_POW_16 = FIVE.pow(16);
+    // fractions of fewer bits are never reduced before the final result
+    private static final int MIN_REDUCED_BITS = 1 << 12;
+    // integer powers up to that exponent and that many bits of the result are exact
+    private static final int MAX_EXACT_EXPONENT = 1 << 16;
+    private static final long MAX_EXACT_POWER_BITS = 1 << 20;
+    // values of exponents further apart, e.g. 1E+2000000000+1, would make a fraction of billions of digits
+    private static final int MAX_ALIGNMENT = 1 << 16;
+
+    private final MathContext mathContext;
+    private final MathContext functionContext;
+
+    // Limit value is used as the maximal precision of final results, see BasicPostfixCalculator(int)
+    public RationalPostfixCalculator(int limit) {
+        checkMin(limit, 1);
+        this.mathContext = new MathContext(limit, HALF_UP);
+        this.functionContext = new MathContext(limit + GUARD_DIGITS, HALF_UP);
+    }
+
+    public RationalPostfixCalculator() {
+        this(70);
+    }
+
+    // Decimal point of number tokens has to be a dot '.'
+    // as in BigDecimal(String) constructor
+    @Override
+    public BigDecimal calculate(List<String> postfix) {
+        checkNotNull(postfix);
+        return calculate(PostfixProgram.of(postfix));
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, NO_ARGUMENTS);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        Fraction[] stack = new Fraction[program.getMaxStackDepth()];
+        Fraction[] registers = new Fraction[program.getRegisterCount()];
+        int top = -1;
+        for (int i = 0; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            if (opcode == Opcode.PUSH) {
+                stack[++top] = Fraction.of(program.getConstant(program.getOperand(i)));
+            } else if (opcode == Opcode.LOAD) {
+                stack[++top] = Fraction.of(arguments[program.getOperand(i)]);
+            } else if (opcode == Opcode.STORE) {
+                registers[program.getOperand(i)] = stack[top];
+            } else if (opcode == Opcode.RECALL) {
+                stack[++top] = registers[program.getOperand(i)];
+            } else if (opcode.getArity() == 1) {
+                stack[top] = applyUnary(opcode, stack[top]);
+            } else {
+                Fraction arg2 = stack[top--];
+                stack[top] = apply(opcode, stack[top], arg2);
+            }
+        }
+        BigDecimal exact = stack[0].toExactDecimal();
+        if (exact == null) {
+            return stack[0].toDecimal(mathContext);
+        }
+        // an integer of at most limit digits is not written with an exponent
+        if (exact.scale() < 0 && exact.precision() - exact.scale() <= mathContext.getPrecision()) {
+            exact = exact.setScale(0);
+        }
+        return exact.round(mathContext);
+    }
+
+    @Override
+    public int getLimit() {
+        return mathContext.getPrecision();
+    }
+
+    private Fraction apply(Opcode opcode, Fraction arg1, Fraction arg2) {
+        switch (opcode) {
+            case ADD:
+                return arg1.add(arg2, false);
+            case SUB:
+                return arg1.add(arg2, true);
+            case MUL:
+                return arg1.multiply(arg2.numerator, arg2.denominator, arg2.exponent);
+            case DIV:
+                if (arg2.numerator.signum() == 0) {
+                    throw new CalculationException(arg1.numerator.signum() == 0 ? "Division undefined"
+                                                                                : "Division by zero",
+                            Result.ErrorCode.DIVISION_BY_ZERO);
+                }
+                // the denominator stays positive
+                return arg2.numerator.signum() > 0
+                       ? arg1.multiply(arg2.denominator, arg2.numerator, -(long) arg2.exponent)
+                       : arg1.multiply(arg2.denominator.negate(), arg2.numerator.negate(), -(long) arg2.exponent);
+            case POW:
+                return pow(arg1, arg2);
+            case MIN:
+                return arg1.add(arg2, true).numerator.signum() <= 0 ? arg1 : arg2;
+            case MAX:
+                return arg1.add(arg2, true).numerator.signum() >= 0 ? arg1 : arg2;
+            default:
+                throw new IllegalArgumentException("not a binary operation: " + opcode);
+        }
+    }
+
+    private Fraction applyUnary(Opcode opcode, Fraction arg) {
+        switch (opcode) {
+            case NEG:
+                return arg.negate();
+            case ABS:
+                return arg.numerator.signum() >= 0 ? arg : arg.negate();
+            case SQRT:
+                return Fraction.of(BigMath.sqrt(arg.toDecimal(functionContext), functionContext));
+            case LN:
+                return Fraction.of(BigMath.ln(arg.toDecimal(functionContext), functionContext));
+            case EXP:
+                return Fraction.of(BigMath.exp(arg.toDecimal(functionContext), functionContext));
+            default:
+                throw new IllegalArgumentException("not a unary operation: " + opcode);
+        }
+    }
+
+    private Fraction pow(Fraction base, Fraction exponent) {
+        BigDecimal n = exponent.toExactDecimal();
+        if (n != null && n.scale() <= 0 && n.precision() - n.scale() <= 9) {
+            int m = Math.abs(n.intValueExact());
+            long bits = (long) Math.max(base.numerator.bitLength(), base.denominator.bitLength()) * m;
+            if (m <= MAX_EXACT_EXPONENT && bits <= MAX_EXACT_POWER_BITS) {
+                if (base.numerator.signum() == 0 && n.signum() < 0) {
+                    throw new CalculationException("Division by zero", Result.ErrorCode.DIVISION_BY_ZERO);
+                }
+                Fraction power = new Fraction(base.numerator.pow(m), base.denominator.pow(m),
+                        exponent((long) base.exponent * m), 0);
+                return n.signum() >= 0 ? power : apply(Opcode.DIV, Fraction.of(BigDecimal.ONE), power);
+            }
+        }
+        return Fraction.of(BigMath.pow(base.toDecimal(functionContext), exponent.toDecimal(functionContext),
+                functionContext));
+    }
+
+    private static int exponent(long exponent) {
+        if (exponent > Integer.MAX_VALUE || exponent < -Integer.MAX_VALUE) {
+            throw new CalculationException(exponent > 0 ? "Overflow" : "Underflow");
+        }
+        return (int) exponent;
+    }
+
+    // Immutable fraction numerator / denominator * 10^exponent with a positive denominator,
+    // not necessarily reduced
+    private static final class Fraction {
+        final BigInteger numerator;
+        final BigInteger denominator;
+        final int exponent;
+        // bits of the numerator and denominator after the last reduction
+        final int reducedBits;
+
+        Fraction(BigInteger numerator, BigInteger denominator, int exponent, int reducedBits) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+            this.exponent = exponent;
+            this.reducedBits = reducedBits;
+        }
+
+        static Fraction of(BigDecimal value) {
+            return new Fraction(value.unscaledValue(), BigInteger.ONE, exponent(-(long) value.scale()), 0);
+        }
+
+        Fraction negate() {
+            return new Fraction(numerator.negate(), denominator, exponent, reducedBits);
+        }
+
+        Fraction add(Fraction other, boolean subtract) {
+            BigInteger n1 = numerator;
+            BigInteger n2 = subtract ? other.numerator.negate() : other.numerator;
+            // numerators are aligned to the smaller exponent as unscaled values of BigDecimal
+            long alignment = (long) exponent - other.exponent;
+            if (Math.abs(alignment) > MAX_ALIGNMENT) {
+                throw new CalculationException("Exponents of values too far apart for fractions");
+            }
+            if (alignment > 0) {
+                n1 = n1.multiply(BigInteger.TEN.pow((int) alignment));
+            } else if (alignment < 0) {
+                n2 = n2.multiply(BigInteger.TEN.pow((int) -alignment));
+            }
+            int aligned = Math.min(exponent, other.exponent);
+            if (denominator.equals(other.denominator)) {
+                return reduceIfGrown(n1.add(n2), denominator, aligned);
+            }
+            return reduceIfGrown(n1.multiply(other.denominator).add(n2.multiply(denominator)),
+                    denominator.multiply(other.denominator), aligned);
+        }
+
+        // Multiplies by n / d * 10^e where d is positive
+        Fraction multiply(BigInteger n, BigInteger d, long e) {
+            BigInteger product = d.equals(BigInteger.ONE) ? denominator : denominator.multiply(d);
+            return reduceIfGrown(numerator.multiply(n), product, exponent(exponent + e));
+        }
+
+        // Returns the exact decimal of the smallest scale or null if it does not terminate
+        BigDecimal toExactDecimal() {
+            // denominator = 2^twos * 5^fives * rest, where rest has no factors 2 and 5
+            int twos = denominator.getLowestSetBit();
+            BigInteger rest = denominator.shiftRight(twos);
+            int fives = 0;
+            for (BigInteger[] qr = rest.divideAndRemainder(FIVE_POW_16); qr[1].signum() == 0;
+                 qr = rest.divideAndRemainder(FIVE_POW_16)) {
+                rest = qr[0];
+                fives += 16;
+            }
+            for (BigInteger[] qr = rest.divideAndRemainder(FIVE); qr[1].signum() == 0;
+                 qr = rest.divideAndRemainder(FIVE)) {
+                rest = qr[0];
+                fives++;
+            }
+            // the decimal terminates if and only if rest divides the numerator
+            BigInteger[] qr = numerator.divideAndRemainder(rest);
+            if (qr[1].signum() != 0) {
+                return null;
+            }
+            // q / (2^twos 5^fives) = q 2^(scale - twos) 5^(scale - fives) / 10^scale
+            int scale = Math.max(twos, fives);
+            BigInteger unscaled = qr[0].shiftLeft(scale - twos).multiply(FIVE.pow(scale - fives));
+            return new BigDecimal(unscaled, exponent(scale - (long) exponent)).stripTrailingZeros();
+        }
+
+        BigDecimal toDecimal(MathContext mc) {
+            return new BigDecimal(numerator, -exponent).divide(new BigDecimal(denominator), mc);
+        }
+
+        private Fraction reduceIfGrown(BigInteger n, BigInteger d, int e) {
+            int bits = n.bitLength() + d.bitLength();
+            if (bits <= Math.max(MIN_REDUCED_BITS, 2 * reducedBits)) {
+                return new Fraction(n, d, e, reducedBits);
+            }
+            BigInteger gcd = n.gcd(d);
+            if (!gcd.equals(BigInteger.ONE)) {
+                n = n.divide(gcd);
+                d = d.divide(gcd);
+            }
+            return new Fraction(n, d, e, n.bitLength() + d.bitLength());
+        }
+    }
+}
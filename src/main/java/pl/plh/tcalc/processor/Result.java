@@ -0,0 +1,79 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+
+// Result of Processor.evaluate(String): a value or an error, so callers tell them apart without parsing
+// messages. Errors of malformed expressions tell where the expression is malformed and what is expected there.
+// Instances are immutable.
+public final class Result {
+    public enum ErrorCode {
+        MALFORMED_EXPRESSION,
+        DIVISION_BY_ZERO,
+        // any other arithmetic error, e.g. an overflow or a logarithm of a negative number
+        ARITHMETIC_ERROR
+    }
+
+    private final BigDecimal value;
+    private final String text;
+    private final ErrorCode errorCode;
+    private final int offset;
+    private final String expected;
+
+    private Result(BigDecimal value, String text, ErrorCode errorCode, int offset, String expected) {
+        this.value = value;
+        this.text = text;
+        this.errorCode = errorCode;
+        this.offset = offset;
+        this.expected = expected;
+    }
+
+    static Result ofValue(BigDecimal value, String text) {
+        return new Result(value, text, null, -1, null);
+    }
+
+    static Result ofError(ParseException e) {
+        return new Result(null, e.getMessage(), ErrorCode.MALFORMED_EXPRESSION, e.getOffset(), e.getExpected());
+    }
+
+    static Result ofError(ArithmeticException e) {
+        ErrorCode errorCode = e instanceof CalculationException ? ((CalculationException) e).getErrorCode()
+                                                                : ErrorCode.ARITHMETIC_ERROR;
+        return new Result(null, e.getMessage(), errorCode, -1, null);
+    }
+
+    public boolean isError() {
+        return errorCode != null;
+    }
+
+    // Returns null for an error
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    // Returns a formatted value or a message of the error, the same as Processor.process(String)
+    public String getText() {
+        return text;
+    }
+
+    // Returns null for a value
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    // Returns an index of the char at which a malformed expression fails,
+    // its length if it ends too early or -1 if the offset is unknown or there is no such error
+    public int getOffset() {
+        return offset;
+    }
+
+    // Returns what is expected at the offset of a malformed expression, e.g. "operand", "operator" or ")",
+    // or null if it is unknown or there is no such error
+    public String getExpected() {
+        return expected;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
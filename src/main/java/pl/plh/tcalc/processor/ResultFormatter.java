@@ -1,34 +1,173 @@
 package pl.plh.tcalc.processor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.text.DecimalFormat;
+import java.math.BigInteger;
+import java.util.Locale;
 
 import static pl.plh.tcalc.GenericValidator.checkMin;
 import static pl.plh.tcalc.GenericValidator.checkNotNull;
 
-
+// Formats results without trailing zeros, in plain notation if it has at most limit digits
+// (a minus sign counts as a digit), otherwise in engineering notation.
+// Digits are written straight into the output and counted without building the plain string,
+// values of at most 18 digits are formatted without any intermediate strings.
+// The formatter is stateless and may be shared between threads.
 public class ResultFormatter {
-    // decimal separator
-    private static final char DS = new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator();
+    private static final long[] POWERS_OF_TEN = new long[PostfixProgram.COMPACT_PRECISION + 1];
+    private static final BigInteger CHUNK = BigInteger.TEN.pow(PostfixProgram.COMPACT_PRECISION);
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
 
     // Format a BigDecimal according to default localization
     // limit - maximum digits number of resulted decimal
     // throws IllegalArgumentException, if reduction of digits
     // would cause the loss of the value
     public String format(BigDecimal number, int limit) {
+        return format(number, limit, Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    public String format(BigDecimal number, int limit, Locale locale) {
+        checkNotNull(number);
+        // a plain integer fitting a long needs no other object than its string
+        if (number.scale() == 0 && number.precision() <= PostfixProgram.COMPACT_PRECISION
+                && number.precision() + (number.signum() < 0 ? 1 : 0) <= limit) {
+            return Long.toString(number.longValue());
+        }
+        return format(number, limit, locale, new StringBuilder(number.precision() + 8)).toString();
+    }
+
+    // Appends the formatted number to out, which may be reused between calls
+    public StringBuilder format(BigDecimal number, int limit, Locale locale, StringBuilder out) {
+        try {
+            format(number, limit, locale, (Appendable) out);
+            return out;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Appends the formatted number to out, nothing is appended if an exception is thrown
+    public <A extends Appendable> A format(BigDecimal number, int limit, Locale locale, A out) throws IOException {
         checkNotNull(number);
         checkMin(limit, 1);
-        BigDecimal bd = number.stripTrailingZeros();
-        if(number.precision() > limit) {
+        checkNotNull(locale);
+        checkNotNull(out);
+        if (number.precision() > limit) {
             throw new IllegalArgumentException("limit causes the loss of a value");
         }
-        String plainStr = bd.toPlainString();
-        int digits =  plainStr.length();
-        if (bd.scale() > 0) { digits--; } // if the number is not integer
-        String result = plainStr;
-        if (digits > limit) { // very long 0.00000000000...
-            result = bd.toEngineeringString();
+        char ds = DecimalSeparators.of(locale);
+        if (number.precision() <= PostfixProgram.COMPACT_PRECISION) {
+            appendCompact(number, limit, ds, out);
+        } else {
+            appendLarge(number, limit, ds, out);
+        }
+        return out;
+    }
+
+    private static void appendCompact(BigDecimal number, int limit, char ds, Appendable out) throws IOException {
+        // longValue() of an integer does not allocate
+        long unscaled = number.scale() == 0 ? number.longValue() : number.unscaledValue().longValue();
+        int scale = number.scale();
+        if (unscaled == 0) {
+            scale = 0;
+        }
+        while (unscaled != 0 && unscaled % 10 == 0) {
+            unscaled /= 10;
+            scale--;
+        }
+        boolean negative = unscaled < 0;
+        long abs = Math.abs(unscaled);
+        int precision = 1;
+        while (precision < POWERS_OF_TEN.length && abs >= POWERS_OF_TEN[precision]) {
+            precision++;
+        }
+        if (plainDigits(negative, precision, scale) > limit) { // very long 0.00000000000...
+            appendReplacingPoint(number.stripTrailingZeros().toEngineeringString(), ds, out);
+        } else {
+            appendPlain(abs, null, negative, precision, scale, ds, out);
+        }
+    }
+
+    private static void appendLarge(BigDecimal number, int limit, char ds, Appendable out) throws IOException {
+        // an odd value has no trailing zeros and stripping them divides by ten at least once
+        BigDecimal stripped = number.unscaledValue().testBit(0) ? number : number.stripTrailingZeros();
+        boolean negative = stripped.signum() < 0;
+        int precision = stripped.precision();
+        if (plainDigits(negative, precision, stripped.scale()) > limit) {
+            appendReplacingPoint(stripped.toEngineeringString(), ds, out);
+        } else {
+            appendPlain(0, digits(stripped.unscaledValue().abs(), precision), negative, precision,
+                stripped.scale(), ds, out);
+        }
+    }
+
+    // Splits the value into chunks of 18 digits, which is cheaper than BigInteger.toString()
+    private static char[] digits(BigInteger value, int precision) {
+        char[] digits = new char[precision];
+        int end = precision;
+        BigInteger rest = value;
+        while (end > 0) {
+            long chunk;
+            int chunkDigits;
+            if (rest.bitLength() < Long.SIZE) {
+                chunk = rest.longValue();
+                chunkDigits = end;
+            } else {
+                BigInteger[] quotientAndRemainder = rest.divideAndRemainder(CHUNK);
+                rest = quotientAndRemainder[0];
+                chunk = quotientAndRemainder[1].longValue();
+                chunkDigits = PostfixProgram.COMPACT_PRECISION;
+            }
+            for (int i = 0; i < chunkDigits; i++) {
+                digits[--end] = (char) ('0' + chunk % 10);
+                chunk /= 10;
+            }
+        }
+        return digits;
+    }
+
+    // Returns a length of the plain string without the decimal point
+    private static long plainDigits(boolean negative, int precision, int scale) {
+        long digits = scale <= 0 ? (long) precision - scale : Math.max(precision, (long) scale + 1);
+        return negative ? digits + 1 : digits;
+    }
+
+    // Digits are taken from the array if it is given, otherwise from the long
+    private static void appendPlain(long compact, char[] digits, boolean negative, int precision, int scale,
+                                    char ds, Appendable out) throws IOException {
+        if (negative) {
+            out.append('-');
+        }
+        if (scale >= precision) {
+            out.append('0').append(ds);
+            for (int i = precision; i < scale; i++) {
+                out.append('0');
+            }
+        }
+        int point = precision - scale;
+        for (int i = 0; i < precision; i++) {
+            if (i == point && i != 0) {
+                out.append(ds);
+            }
+            out.append(digits != null ? digits[i]
+                                      : (char) ('0' + compact / POWERS_OF_TEN[precision - 1 - i] % 10));
+        }
+        for (int i = precision; i < point; i++) {
+            out.append('0');
+        }
+    }
+
+    private static void appendReplacingPoint(String number, char ds, Appendable out) throws IOException {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            out.append(c == '.' ? ds : c);
         }
-        return result.replace('.', DS);
     }
 }
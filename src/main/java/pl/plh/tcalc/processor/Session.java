@@ -0,0 +1,264 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static pl.plh.tcalc.GenericValidator.checkNotBlank;
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Interactive session with named results, like cells of a spreadsheet.
+// A line is an expression or an assignment "name = expression", expressions may use names of results
+// and "ans", the last result. Every assignment is remembered with the names it uses, so redefining
+// a name recomputes only the results depending on it, in order of their dependencies.
+// Values are kept as calculated, never parsed back from formatted results.
+// A name used before it is defined, or whose expression fails, makes its dependents fail.
+// A session is not safe for concurrent use.
+public final class Session {
+    public static final String ANS = "ans";
+
+    // a dependency on "ans", which is not a cell of the session
+    private static final Cell ANS_CELL = new Cell(ANS);
+
+    private final Processor processor;
+    private final Map<String, Cell> cells = new HashMap<>();
+    private final List<String> recomputed = new ArrayList<>();
+    private BigDecimal ans;
+
+    public Session(Processor processor) {
+        checkNotNull(processor);
+        this.processor = processor;
+    }
+
+    // Returns a formatted result of the expression or assignment or a message of an error
+    public String execute(String line) {
+        checkNotBlank(line, "missing input data");
+        int assignment = line.indexOf('=');
+        if (assignment < 0) {
+            return evaluate(line);
+        }
+        String name = line.substring(0, assignment).trim();
+        if (!isName(name)) {
+            recomputed.clear();
+            return new ParseException().getMessage();
+        }
+        return assign(name, line.substring(assignment + 1));
+    }
+
+    // Evaluates the expression without remembering it, its value becomes "ans"
+    public String evaluate(String expression) {
+        checkNotBlank(expression, "missing input data");
+        recomputed.clear();
+        Cell cell = new Cell(null);
+        try {
+            cell.expression = processor.compile(expression);
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+        cell.ans = ans;
+        for (String variable : cell.expression.getVariables()) {
+            Cell dependency = variable.equals(ANS) ? ANS_CELL : cells.get(variable);
+            cell.dependencies.add(dependency == null ? new Cell(variable) : dependency);
+        }
+        calculate(cell);
+        return lineResult(cell);
+    }
+
+    // Defines or redefines the name and recomputes results depending on it (see getRecomputed())
+    // A definition which would depend on itself is rejected and the previous one is kept
+    public String assign(String name, String expression) {
+        checkNotNull(name);
+        recomputed.clear();
+        if (!isName(name)) {
+            return new ParseException().getMessage();
+        }
+        if (name.equals(ANS) || Opcode.ofFunction(name) != null) {
+            return String.format("%s is a reserved name", name);
+        }
+        if (expression == null || expression.trim().isEmpty()) {
+            return new ParseException().getMessage();
+        }
+        CompiledExpression compiled;
+        try {
+            compiled = processor.compile(expression);
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            cell = new Cell(name);
+            cells.put(name, cell);
+        }
+        // the cell and its dependents in order of dependencies, none of them may be used by the cell
+        List<Cell> affected = dependents(cell);
+        Set<Cell> used = new HashSet<>(affected);
+        for (String variable : compiled.getVariables()) {
+            if (used.contains(cells.get(variable))) {
+                return String.format("circular reference to %s", variable);
+            }
+        }
+        for (Cell dependency : cell.dependencies) {
+            dependency.dependents.remove(cell);
+        }
+        cell.dependencies.clear();
+        cell.expression = compiled;
+        cell.ans = ans;
+        for (String variable : compiled.getVariables()) {
+            Cell dependency = variable.equals(ANS) ? ANS_CELL : cells.get(variable);
+            if (dependency == null) {
+                // a placeholder, so the cell is recomputed once the name is defined
+                dependency = new Cell(variable);
+                cells.put(variable, dependency);
+            }
+            if (dependency != ANS_CELL) {
+                dependency.dependents.add(cell);
+            }
+            cell.dependencies.add(dependency);
+        }
+        for (Cell dependent : affected) {
+            calculate(dependent);
+            if (dependent != cell) {
+                recomputed.add(dependent.name);
+            }
+        }
+        return lineResult(cell);
+    }
+
+    // Returns names of results recomputed by the last assignment in order of their recomputation
+    public List<String> getRecomputed() {
+        return Collections.unmodifiableList(recomputed);
+    }
+
+    // Returns a value of the name or null if it is not defined or its expression fails
+    public BigDecimal getValue(String name) {
+        Cell cell = cells.get(name);
+        return cell == null ? null : cell.value;
+    }
+
+    // Returns a formatted value of the name or a message of its error
+    public String getResult(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null || cell.expression == null) {
+            return undefined(name);
+        }
+        return result(cell);
+    }
+
+    // Returns null if "ans" is not defined yet
+    public BigDecimal getAns() {
+        return ans;
+    }
+
+    // Returns names of defined results in alphabetical order
+    public SortedSet<String> getNames() {
+        SortedSet<String> names = new TreeSet<>();
+        for (Cell cell : cells.values()) {
+            if (cell.expression != null) {
+                names.add(cell.name);
+            }
+        }
+        return names;
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty() || !Lexer.isIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Lexer.isIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the cell followed by all cells depending on it, every cell after the cells it uses.
+    // Dependents are visited iteratively, so long chains of definitions do not overflow the stack.
+    private static List<Cell> dependents(Cell cell) {
+        List<Cell> postorder = new ArrayList<>();
+        Set<Cell> visited = new HashSet<>();
+        Deque<Iterator<Cell>> path = new ArrayDeque<>();
+        visited.add(cell);
+        path.push(cell.dependents.iterator());
+        Deque<Cell> cellsOnPath = new ArrayDeque<>();
+        cellsOnPath.push(cell);
+        while (!path.isEmpty()) {
+            Iterator<Cell> dependents = path.peek();
+            if (dependents.hasNext()) {
+                Cell dependent = dependents.next();
+                if (visited.add(dependent)) {
+                    path.push(dependent.dependents.iterator());
+                    cellsOnPath.push(dependent);
+                }
+            } else {
+                path.pop();
+                postorder.add(cellsOnPath.pop());
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    // A cell using a name which is not defined or which failed fails with its message
+    private static void calculate(Cell cell) {
+        cell.value = null;
+        cell.error = null;
+        BigDecimal[] arguments = new BigDecimal[cell.dependencies.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            Cell dependency = cell.dependencies.get(i);
+            if (dependency == ANS_CELL) {
+                arguments[i] = cell.ans;
+                if (cell.ans == null) {
+                    cell.error = undefined(ANS);
+                    return;
+                }
+            } else if (dependency.expression == null) {
+                cell.error = undefined(dependency.name);
+                return;
+            } else if (dependency.value == null) {
+                cell.error = dependency.error;
+                return;
+            } else {
+                arguments[i] = dependency.value;
+            }
+        }
+        try {
+            cell.value = cell.expression.calculate(arguments);
+        } catch (ArithmeticException e) {
+            cell.error = e.getMessage();
+        }
+    }
+
+    private String result(Cell cell) {
+        return cell.value == null ? cell.error : processor.format(cell.value);
+    }
+
+    // A successful result of a line becomes "ans"
+    private String lineResult(Cell cell) {
+        if (cell.value != null) {
+            ans = cell.value;
+        }
+        return result(cell);
+    }
+
+    private static String undefined(String name) {
+        return String.format("%s is not defined", name);
+    }
+
+    // A named result or an unnamed expression, or a placeholder of a name used before its definition
+    private static final class Cell {
+        final String name;
+        // null for a placeholder
+        CompiledExpression expression;
+        // cells of variables in order of CompiledExpression.getVariables()
+        final List<Cell> dependencies = new ArrayList<>();
+        final Set<Cell> dependents = new LinkedHashSet<>();
+        // "ans" at the time of the definition, kept for recomputations
+        BigDecimal ans;
+        BigDecimal value;
+        String error;
+
+        Cell(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -1,22 +1,16 @@
 package pl.plh.tcalc.processor;
 
-import java.text.DecimalFormat;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
 import java.util.*;
-import java.util.regex.Pattern;
 
 import static pl.plh.tcalc.GenericValidator.*;
 
 public class ShuntingYard implements InfixPostfixConverter {
-    private static final char DS = new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator();
-    // Scanner goes char by char skipping whitespaces
-    private static final Pattern DELIMITER_PTRN = Pattern.compile("\\s*");
-    private static final Pattern DIGIT_PTRN = Pattern.compile("\\d");
-    private static final Pattern POSITIVE_DECIMAL_PTRN = Pattern.compile(String.format("\\d+(?:\\%s\\d+)?", DS));
-    private static final Pattern OPERATOR_PTRN = Pattern.compile("[\\+\\-\\*\\/]");
-    private static final Pattern LEFT_BRACKET_PTRN = Pattern.compile("\\(");
-    private static final Pattern RIGHT_BRACKET_PTRN = Pattern.compile("\\)");
-    private static final Pattern DIGIT_OR_LEFT_BRACKET_PTRN = Pattern.compile("[\\(\\d]");
-    private static final Pattern OPERATOR_OR_RIGHT_BRACKET_PTRN = Pattern.compile("[\\)\\+\\-\\*\\/]");
+    // DecimalFormatSymbols alone is much cheaper to initialize than a whole DecimalFormat
+    private static final char DS = DecimalSeparators.ofDefault();
 
     private static final class Precedence {
         static final Map<String, Integer> precedences = createPrecedences();
@@ -27,6 +21,7 @@ public class ShuntingYard implements InfixPostfixConverter {
             precedences.put("-", 0);
             precedences.put("*", 1);
             precedences.put("/", 1);
+            precedences.put("^", 2);
             return Collections.unmodifiableMap(precedences);
         }
 
@@ -35,146 +30,310 @@ public class ShuntingYard implements InfixPostfixConverter {
                     (!precedences.containsKey(sub) ||
                             precedences.get(op) >= precedences.get(sub));
         }
-    }
 
-    private List<String> output;
-    private Deque<String> stack;
-    private Scanner scan;
+        private static boolean isHigher(String op, String sub) {
+            return precedences.containsKey(op) &&
+                    (!precedences.containsKey(sub) ||
+                            precedences.get(op) > precedences.get(sub));
+        }
 
-    private void init(String infix) {
-        output = new ArrayList<>();
-        stack = new ArrayDeque<>();
-        // scan uses only StringReader as a source, so scan.close() is unnecessary
-        scan = new Scanner("(" + infix + ")").useDelimiter(DELIMITER_PTRN);
+        // "^" is right-associative: 2^3^2 is 2^(3^2)
+        private static boolean isPoppedBy(String op, String sub) {
+            return sub.equals("^") ? isHigher(op, sub) : isHigherOrEqual(op, sub);
+        }
     }
 
-    // Based on The Shunting Yard Algorithm
     // Throws pl.plh.tcalc.processor.ParseException if infix is malformed
     // or decimal point is not suitable to localization
     // Returns a List of String postfix tokens where decimals have standard java form with '.' as a decimal point
     @Override
     public List<String> convert(String infix) {
+        return compile(infix).toTokens();
+    }
+
+    // Based on The Shunting Yard Algorithm
+    // Throws pl.plh.tcalc.processor.ParseException if infix is malformed
+    // or decimal point is not suitable to localization
+    // Identifiers ([A-Za-z_][A-Za-z0-9_]*) are compiled to variables of the program,
+    // except for names of functions (see Opcode.isFunction()), which have to be followed by arguments
+    // in brackets separated by ';' (or by ',' if it is not the decimal separator)
+    // Returns a compiled program with literals parsed straight from the infix
+    @Override
+    public PostfixProgram compile(String infix) {
         checkNotBlank(infix, "empty infix");
-        init(infix);
-        while (isSomethingToShunt()) {
-            if (shuntDecimal() || shuntBinaryOperator() || shuntLeftBracketWithUnaryOperatorIfPresent()
-                || shuntRightBracket()) {
-                continue;
-            }
-            // undesirable "carriage"
-            throw new ParseException();
-        }
-        return getOutput();
+        PostfixProgram.Builder output = new PostfixProgram.Builder();
+        // lexer sees infix wrapped in virtual brackets: "(" + infix + ")"
+        new Conversion(new Lexer(infix, DS), output).convert();
+        return output.build();
     }
 
-    private boolean isSomethingToShunt() {
-        return scan.hasNext();
+    // The same as compile(String), but the infix is read from the reader, which is not closed
+    // Throws pl.plh.tcalc.processor.ParseException if infix is malformed or empty
+    public PostfixProgram compile(Reader infix) throws IOException {
+        PostfixProgram.Builder output = new PostfixProgram.Builder();
+        convert(infix, output);
+        return output.build();
     }
 
-    private boolean shuntDecimal() {
-        if (scan.hasNext(DIGIT_PTRN)) {
-            String decimal = scan.findInLine(POSITIVE_DECIMAL_PTRN);
-            if (scan.hasNext(DIGIT_OR_LEFT_BRACKET_PTRN)) {
-                throw new ParseException();
-            }
-            output.add(decimal.replace(DS, '.'));
-            return true;
+    // Emits operations to the output as soon as they are popped from the operator stack,
+    // so the output may evaluate them before the rest of the infix is read
+    static void convert(Reader infix, PostfixOutput output) throws IOException {
+        checkNotNull(infix);
+        try {
+            new Conversion(new Lexer(infix, DS), output).convert();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return false;
     }
 
-    private boolean shuntLeftBracketWithUnaryOperatorIfPresent() {
-        if(shuntLeftBracket()) {
-            shuntUnaryOperator();
-            return true;
+    // State of a single conversion, so ShuntingYard itself is stateless and may be shared between threads
+    // ParseExceptions tell the offset of the first char which cannot be shunted and what is expected there
+    private static final class Conversion {
+        private static final String OPERAND = "operand";
+        private static final String OPERATOR = "operator";
+
+        private final PostfixOutput output;
+        // operators, left brackets and functions, which stand for left brackets of their arguments
+        private final Deque<String> stack = new ArrayDeque<>();
+        // numbers of arguments of functions on the stack
+        private final Deque<Integer> argumentCounts = new ArrayDeque<>();
+        private final Lexer lexer;
+        // the last token was an operand or a right bracket, so an operator is expected
+        private boolean afterOperand;
+
+        Conversion(Lexer lexer, PostfixOutput output) {
+            this.lexer = lexer;
+            this.output = output;
         }
-        return false;
-    }
 
-    // for use only inside shuntLeftBracketWithUnaryOperatorIfPresent()
-    private boolean shuntUnaryOperator() {
-        String operator = scanNextOperator();
-        if(operator == null) {
+        void convert() {
+            while (isSomethingToShunt()) {
+                if (shuntDecimal() || shuntVariableOrFunction() || shuntBinaryOperator()
+                    || shuntLeftBracketWithUnaryOperatorIfPresent() || shuntArgumentSeparator()
+                    || shuntRightBracket()) {
+                    continue;
+                }
+                // undesirable "carriage"
+                throw error(afterOperand ? OPERATOR : OPERAND);
+            }
+            checkStackEmpty();
+        }
+
+        private boolean isSomethingToShunt() {
+            return lexer.peek() != Lexer.EOF;
+        }
+
+        private boolean shuntDecimal() {
+            if (lexer.nextDecimal()) {
+                checkNoOperandNext();
+                output.push(lexer.decimalValue());
+                afterOperand = true;
+                return true;
+            }
             return false;
         }
-        switch(operator) {
-            case "+":
-                break; // ignore unary "+"
-            case "-":
-                output.add("0"); // unary "-x" is the same as binary "0-x"
-                stack.push("-");
-                break;
-            default: // unknown unary operator
-                throw new ParseException();
-        }
-        return true;
-    }
 
-    // may be called unconditionally because unary operators are shunted with left brackets
-    private boolean shuntBinaryOperator() {
-        String operator = scanNextOperator();
-        if(operator == null) {
+        private boolean shuntVariableOrFunction() {
+            if (lexer.nextIdentifier()) {
+                String identifier = lexer.identifierToken();
+                Opcode function = Opcode.ofFunction(identifier);
+                if (function != null) {
+                    shuntFunction(function);
+                    return true;
+                }
+                checkNoOperandNext();
+                output.load(identifier);
+                afterOperand = true;
+                return true;
+            }
             return false;
         }
-        while (!stack.isEmpty() && Precedence.isHigherOrEqual(stack.peek(), operator)) {
-            output.add(stack.pop());
+
+        // a function is pushed instead of the left bracket of its arguments
+        private void shuntFunction(Opcode function) {
+            if (lexer.peek() != '(') {
+                throw error("(");
+            }
+            lexer.next();
+            afterOperand = false;
+            checkArgumentNext();
+            stack.push(function.getSymbol());
+            argumentCounts.push(1);
+            shuntUnaryOperator();
+        }
+
+        private boolean shuntArgumentSeparator() {
+            if (!lexer.isArgumentSeparator(lexer.peek())) {
+                return false;
+            }
+            int offset = lexer.offset();
+            lexer.next();
+            afterOperand = false;
+            checkArgumentNext();
+            popOperators();
+            if (stack.isEmpty() || Opcode.ofFunction(stack.peek()) == null) {
+                throw new ParseException(offset, OPERATOR); // not inside arguments of a function
+            }
+            argumentCounts.push(argumentCounts.pop() + 1);
+            shuntUnaryOperator();
+            return true;
         }
-        stack.push(operator);
-        return true;
-    }
 
-    private String scanNextOperator() {
-        if(scan.hasNext(OPERATOR_PTRN)) {
-            String op = scan.next(OPERATOR_PTRN);
-            if (scan.hasNext(OPERATOR_OR_RIGHT_BRACKET_PTRN)) {
-                throw new ParseException();
+        // arguments cannot be empty
+        private void checkArgumentNext() {
+            int next = lexer.peek();
+            if (next == ')' || lexer.isArgumentSeparator(next)) {
+                throw error(OPERAND);
             }
-            return op;
         }
-        return null;
-    }
 
-    // for use only inside shuntLeftBracketWithUnaryOperatorIfPresent()
-    private boolean shuntLeftBracket() {
-        if (scan.hasNext(LEFT_BRACKET_PTRN)) {
-            String lbracket = scan.next(LEFT_BRACKET_PTRN);
-            if (scan.hasNext(RIGHT_BRACKET_PTRN)) {
-                throw new ParseException();
+        // an operand or a right bracket cannot be followed by another operand
+        private void checkNoOperandNext() {
+            int next = lexer.peek();
+            if (Lexer.isDigit(next) || Lexer.isIdentifierStart(next) || next == '(') {
+                throw error(OPERATOR);
+            }
+        }
+
+        private boolean shuntLeftBracketWithUnaryOperatorIfPresent() {
+            if(shuntLeftBracket()) {
+                shuntUnaryOperator();
+                return true;
+            }
+            return false;
+        }
+
+        // for use only after left brackets and argument separators
+        private boolean shuntUnaryOperator() {
+            int offset = lexer.offset();
+            String operator = scanNextOperator();
+            if(operator == null) {
+                return false;
+            }
+            switch(operator) {
+                case "+":
+                    break; // ignore unary "+"
+                case "-":
+                    output.push(BigDecimal.ZERO); // unary "-x" is the same as binary "0-x"
+                    stack.push("-");
+                    break;
+                default: // unknown unary operator
+                    throw new ParseException(offset, OPERAND);
             }
-            stack.push(lbracket);
             return true;
         }
-        return false;
-    }
 
-    private boolean shuntRightBracket() {
-        if (scan.hasNext(RIGHT_BRACKET_PTRN)) {
-            scan.next(RIGHT_BRACKET_PTRN);
-            if (scan.hasNext(DIGIT_OR_LEFT_BRACKET_PTRN)) {
-                throw new ParseException();
+        // may be called unconditionally because unary operators are shunted with left brackets
+        private boolean shuntBinaryOperator() {
+            String operator = scanNextOperator();
+            if(operator == null) {
+                return false;
+            }
+            while (!stack.isEmpty() && Precedence.isPoppedBy(stack.peek(), operator)) {
+                output.operation(Opcode.ofSymbol(stack.pop()));
             }
-            while (true) {
+            stack.push(operator);
+            afterOperand = false;
+            return true;
+        }
+
+        private String scanNextOperator() {
+            if(Lexer.isOperator(lexer.peek())) {
+                String op = operatorToken(lexer.next());
+                int next = lexer.peek();
+                if (Lexer.isOperator(next) || next == ')' || lexer.isArgumentSeparator(next)) {
+                    throw error(OPERAND);
+                }
+                return op;
+            }
+            return null;
+        }
+
+        // operator tokens are shared constants, so shunting them does not allocate
+        private static String operatorToken(int c) {
+            switch (c) {
+                case '+':
+                    return "+";
+                case '-':
+                    return "-";
+                case '*':
+                    return "*";
+                case '/':
+                    return "/";
+                default:
+                    return "^";
+            }
+        }
+
+        // for use only inside shuntLeftBracketWithUnaryOperatorIfPresent()
+        private boolean shuntLeftBracket() {
+            if (lexer.peek() == '(') {
+                lexer.next();
+                afterOperand = false;
+                checkArgumentNext();
+                stack.push("(");
+                return true;
+            }
+            return false;
+        }
+
+        private boolean shuntRightBracket() {
+            if (lexer.peek() == ')') {
+                int offset = lexer.offset();
+                lexer.next();
+                afterOperand = true;
+                checkNoOperandNext();
+                popOperators();
                 if (stack.isEmpty()) {
-                    throw new ParseException();
+                    throw new ParseException(offset, OPERATOR);
                 }
                 String popped = stack.pop();
-                if (popped.equals("(")) {
-                    break;
+                if (!popped.equals("(")) {
+                    shuntFunctionCall(Opcode.ofFunction(popped), argumentCounts.pop(), offset);
+                } else if (stack.isEmpty() && isSomethingToShunt()) {
+                    // the bracket closed the virtual '(', so it has no left bracket
+                    throw new ParseException(offset, OPERATOR);
                 }
-                output.add(popped);
+                return true;
+            }
+            return false;
+        }
+
+        // offset - of the right bracket closing arguments
+        private void shuntFunctionCall(Opcode function, int arguments, int offset) {
+            if (function.getArity() == 1 ? arguments != 1 : arguments < 2) {
+                throw new ParseException(offset, function.getArity() == 1 ? ")" : ";");
+            }
+            // min(a; b; c) is min(min(a; b); c)
+            int operations = function.getArity() == 1 ? 1 : arguments - 1;
+            for (int i = 0; i < operations; i++) {
+                output.operation(function);
+            }
+        }
+
+        // pops operators down to the nearest left bracket or function
+        private void popOperators() {
+            while (!stack.isEmpty()) {
+                Opcode operator = Opcode.ofSymbol(stack.peek());
+                if (operator == null || operator.isFunction()) {
+                    return;
+                }
+                stack.pop();
+                output.operation(operator);
             }
-            return true;
         }
-        return false;
-    }
 
-    private List<String> getOutput() {
-        // The first pushed token was '(' and the last one was ')' (see init(String) method),
-        // so the stack should be empty now.
-        if (!stack.isEmpty()) {
-            throw new ParseException();
+        private void checkStackEmpty() {
+            // The first token was the virtual '(' and the last one was the virtual ')' (see Lexer),
+            // so the stack should be empty now.
+            if (!stack.isEmpty()) {
+                throw error(")");
+            }
+        }
+
+        // an error at the next char
+        private ParseException error(String expected) {
+            return new ParseException(lexer.offset(), expected);
         }
-        return output;
     }
 }
-
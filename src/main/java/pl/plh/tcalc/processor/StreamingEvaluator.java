@@ -0,0 +1,92 @@
+package pl.plh.tcalc.processor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Calculates expressions too long to be held in memory, e.g. machine-generated ones of many megabytes.
+// The infix is read in blocks and operations are calculated as soon as ShuntingYard emits them,
+// so memory use depends on the nesting of brackets, not on the length of an expression.
+// Results are equal to BasicPostfixCalculator results of compiled expressions, but errors are reported
+// in order of occurrence, e.g. division by zero before a syntax error which follows it.
+// Variables are not allowed, an expression containing them is incorrect.
+public class StreamingEvaluator {
+    private final BasicPostfixCalculator calculator;
+    private final ResultFormatter formatter = new ResultFormatter();
+
+    public StreamingEvaluator(BasicPostfixCalculator calculator) {
+        checkNotNull(calculator);
+        this.calculator = calculator;
+    }
+
+    // The reader is not closed
+    // Throws pl.plh.tcalc.processor.ParseException if infix is malformed or empty
+    // Throws ArithmeticException if division by zero occurs
+    public BigDecimal calculate(Reader infix) throws IOException {
+        Evaluation evaluation = new Evaluation();
+        ShuntingYard.convert(infix, evaluation);
+        return evaluation.getResult();
+    }
+
+    public BigDecimal calculate(ReadableByteChannel infix, Charset charset) throws IOException {
+        checkNotNull(infix);
+        checkNotNull(charset);
+        return calculate(Channels.newReader(infix, charset.newDecoder(), -1));
+    }
+
+    // Returns a formatted result or a message of an error as Processor.process(String) does
+    public String process(Reader infix) throws IOException {
+        try {
+            return formatter.format(calculate(infix), calculator.getLimit());
+        } catch (ParseException | ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+
+    private final class Evaluation implements PostfixOutput {
+        private BigDecimal[] stack = new BigDecimal[16];
+        private int top = -1;
+
+        @Override
+        public Evaluation push(BigDecimal constant) {
+            if (++top == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top] = calculator.checkPrecision(constant);
+            return this;
+        }
+
+        @Override
+        public Evaluation load(String variable) {
+            throw new ParseException();
+        }
+
+        @Override
+        public Evaluation operation(Opcode opcode) {
+            if (top < opcode.getArity() - 1) {
+                throw new IllegalStateException("stack underflow");
+            }
+            if (opcode.getArity() == 1) {
+                stack[top] = calculator.applyUnary(opcode, stack[top]);
+            } else {
+                BigDecimal arg2 = stack[top];
+                stack[top--] = null;
+                stack[top] = calculator.apply(opcode, stack[top], arg2);
+            }
+            return this;
+        }
+
+        BigDecimal getResult() {
+            if (top != 0) {
+                throw new IllegalStateException("stack.size() != 1");
+            }
+            return stack[0].round(calculator.getMathContext());
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package pl.plh.tcalc.processor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static pl.plh.tcalc.GenericValidator.checkNotNull;
+
+// Calculator with results identical to BasicPostfixCalculator of the same limit, including scales of results.
+// Values are kept as unscaled longs with int scales as long as the arithmetic is provably exact:
+// - additions, subtractions and multiplications detect overflows with Math.*Exact methods,
+// - a division is done only if the quotient is a terminating decimal of at most limit digits
+//   which fits a long, so BigDecimal.divide(BigDecimal, MathContext) would not round it either.
+// Any other case promotes the whole stack and registers to BigDecimal and BasicPostfixCalculator continues
+// the calculation from the current operation, which also reports division by zero.
+// Guard digits and a precision cap are respected: a value with more digits than the calculator keeps
+// or allows is left for BasicPostfixCalculator to round or to reject.
+public class TieredPostfixCalculator implements PostfixCalculator {
+    private static final BigDecimal[] NO_ARGUMENTS = {};
+    private static final long[] NO_REGISTERS = {};
+    private static final int[] NO_SCALES = {};
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final BasicPostfixCalculator exact;
+    // values of more digits are not kept as longs
+    private final int maxDigits;
+    // whether BasicPostfixCalculator caps digits of aligned operands of exact additions
+    private final boolean alignedCap;
+
+    public TieredPostfixCalculator(int limit) {
+        this(new BasicPostfixCalculator(limit));
+    }
+
+    public TieredPostfixCalculator() {
+        this(new BasicPostfixCalculator());
+    }
+
+    // see BasicPostfixCalculator(int, int, int)
+    public TieredPostfixCalculator(int limit, int guardDigits, int maxPrecision) {
+        this(new BasicPostfixCalculator(limit, guardDigits, maxPrecision));
+    }
+
+    private TieredPostfixCalculator(BasicPostfixCalculator exact) {
+        this.exact = exact;
+        int kept = exact.isExact() ? Integer.MAX_VALUE : exact.getOperationPrecision();
+        this.maxDigits = Math.min(kept, exact.getMaxPrecision());
+        this.alignedCap = exact.isExact() && exact.getMaxPrecision() != BasicPostfixCalculator.UNCAPPED;
+    }
+
+    @Override
+    public BigDecimal calculate(List<String> postfix) {
+        checkNotNull(postfix);
+        return calculate(PostfixProgram.of(postfix));
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program) {
+        return calculate(program, NO_ARGUMENTS);
+    }
+
+    @Override
+    public BigDecimal calculate(PostfixProgram program, BigDecimal... arguments) {
+        checkNotNull(program);
+        program.checkArguments(arguments);
+        int depth = program.getMaxStackDepth();
+        long[] unscaled = new long[depth];
+        int[] scales = new int[depth];
+        int top = -1;
+        // registers are stored in order of their indexes
+        int registerCount = program.getRegisterCount();
+        long[] unscaledRegisters = registerCount == 0 ? NO_REGISTERS : new long[registerCount];
+        int[] registerScales = registerCount == 0 ? NO_SCALES : new int[registerCount];
+        int stored = 0;
+        for (int i = 0; i < program.size(); i++) {
+            Opcode opcode = program.getOpcode(i);
+            boolean done;
+            switch (opcode) {
+                case PUSH:
+                    int constant = program.getOperand(i);
+                    done = program.isCompactConstant(constant) && fits(program.getCompactConstant(constant));
+                    if (done) {
+                        unscaled[++top] = program.getCompactConstant(constant);
+                        scales[top] = program.getConstant(constant).scale();
+                    }
+                    break;
+                case LOAD:
+                    BigDecimal argument = arguments[program.getOperand(i)];
+                    done = argument.precision() <= Math.min(PostfixProgram.COMPACT_PRECISION, maxDigits);
+                    if (done) {
+                        // longValue() of an integer does not allocate
+                        unscaled[++top] = argument.scale() == 0 ? argument.longValue()
+                                                                : argument.unscaledValue().longValue();
+                        scales[top] = argument.scale();
+                    }
+                    break;
+                case STORE:
+                    unscaledRegisters[stored] = unscaled[top];
+                    registerScales[stored++] = scales[top];
+                    done = true;
+                    break;
+                case RECALL:
+                    unscaled[++top] = unscaledRegisters[program.getOperand(i)];
+                    scales[top] = registerScales[program.getOperand(i)];
+                    done = true;
+                    break;
+                case ADD:
+                case SUB:
+                case MUL:
+                    done = addOrMultiply(opcode, unscaled, scales, top);
+                    if (done) {
+                        top--;
+                    }
+                    break;
+                case NEG:
+                    done = unscaled[top] != Long.MIN_VALUE;
+                    if (done) {
+                        unscaled[top] = -unscaled[top];
+                    }
+                    break;
+                case ABS:
+                    done = unscaled[top] != Long.MIN_VALUE;
+                    if (done) {
+                        unscaled[top] = Math.abs(unscaled[top]);
+                    }
+                    break;
+                case MIN:
+                case MAX:
+                    done = minOrMax(opcode, unscaled, scales, top);
+                    if (done) {
+                        top--;
+                    }
+                    break;
+                case DIV:
+                    done = divide(unscaled, scales, top);
+                    if (done) {
+                        top--;
+                    }
+                    break;
+                default:
+                    done = false;
+            }
+            if (!done) {
+                return exact.resume(program, arguments, promote(unscaled, scales, top, unscaled.length), top,
+                        promote(unscaledRegisters, registerScales, stored - 1, registerCount), i);
+            }
+        }
+        return BigDecimal.valueOf(unscaled[0], scales[0]).round(exact.getMathContext());
+    }
+
+    @Override
+    public int getLimit() {
+        return exact.getLimit();
+    }
+
+    // see BasicPostfixCalculator.isExactAndUncapped()
+    boolean isExactAndUncapped() {
+        return exact.isExactAndUncapped();
+    }
+
+    // Returns false if BasicPostfixCalculator would round or reject a value of these unscaled digits
+    private boolean fits(long unscaled) {
+        return maxDigits >= POWERS_OF_TEN.length || digits(unscaled) <= maxDigits;
+    }
+
+    // Operands are on top and top - 1 of the stack, the result replaces the lower one.
+    // Returns false leaving the stack unchanged if the result may be inexact or does not fit a long.
+    private boolean addOrMultiply(Opcode opcode, long[] unscaled, int[] scales, int top) {
+        long x1 = unscaled[top - 1];
+        long x2 = unscaled[top];
+        int s1 = scales[top - 1];
+        int s2 = scales[top];
+        try {
+            if (opcode == Opcode.MUL) {
+                long scale = (long) s1 + s2;
+                if (scale != (int) scale) {
+                    return false;
+                }
+                long product = Math.multiplyExact(x1, x2);
+                if (!fits(product)) {
+                    return false;
+                }
+                unscaled[top - 1] = product;
+                scales[top - 1] = (int) scale;
+                return true;
+            }
+            if (alignedCap && Math.max((long) digits(x1) - s1, (long) digits(x2) - s2) + Math.max(s1, s2)
+                    > exact.getMaxPrecision()) {
+                return false; // rejected by BasicPostfixCalculator
+            }
+            // as BigDecimal.add, the result has the greater scale of operands
+            if (s1 < s2) {
+                x1 = rescale(x1, s2 - s1);
+            } else if (s2 < s1) {
+                x2 = rescale(x2, s1 - s2);
+            }
+            long sum = opcode == Opcode.ADD ? Math.addExact(x1, x2) : Math.subtractExact(x1, x2);
+            if (!fits(sum)) {
+                return false;
+            }
+            unscaled[top - 1] = sum;
+            scales[top - 1] = Math.max(s1, s2);
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    // As BigDecimal.min and max, the chosen operand keeps its scale and the first one is chosen if they are equal.
+    // Returns false leaving the stack unchanged if operands cannot be compared in the long range.
+    private static boolean minOrMax(Opcode opcode, long[] unscaled, int[] scales, int top) {
+        long x1 = unscaled[top - 1];
+        long x2 = unscaled[top];
+        int s1 = scales[top - 1];
+        int s2 = scales[top];
+        try {
+            if (s1 < s2) {
+                x1 = rescale(x1, s2 - s1);
+            } else if (s2 < s1) {
+                x2 = rescale(x2, s1 - s2);
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        boolean first = opcode == Opcode.MIN ? x1 <= x2 : x1 >= x2;
+        if (!first) {
+            unscaled[top - 1] = unscaled[top];
+            scales[top - 1] = s2;
+        }
+        return true;
+    }
+
+    // The quotient gets a scale closest to the preferred scale s1 - s2 like in BigDecimal.divide(x, MathContext).
+    // Returns false leaving the stack unchanged if the quotient is not exact in a long of at most
+    // getOperationPrecision() digits.
+    private boolean divide(long[] unscaled, int[] scales, int top) {
+        long x1 = unscaled[top - 1];
+        long x2 = unscaled[top];
+        long scale = (long) scales[top - 1] - scales[top];
+        if (x2 == 0 || x1 == Long.MIN_VALUE || x2 == Long.MIN_VALUE) {
+            return false;
+        }
+        // the smallest scale not below the preferred one with an exact quotient
+        while (x1 % x2 != 0) {
+            if (Math.abs(x1) > Long.MAX_VALUE / 10) {
+                return false;
+            }
+            x1 *= 10;
+            scale++;
+        }
+        long quotient = x1 / x2;
+        if (scale != (int) scale || digits(quotient) > Math.min(exact.getOperationPrecision(), maxDigits)) {
+            return false;
+        }
+        unscaled[top - 1] = quotient;
+        scales[top - 1] = (int) scale;
+        return true;
+    }
+
+    private static long rescale(long x, int digits) {
+        if (digits >= POWERS_OF_TEN.length) {
+            throw new CalculationException("long overflow");
+        }
+        return Math.multiplyExact(x, POWERS_OF_TEN[digits]);
+    }
+
+    private static int digits(long x) {
+        if (x == Long.MIN_VALUE) {
+            return POWERS_OF_TEN.length;
+        }
+        long abs = Math.abs(x);
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && abs >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    // Returns an array of the given length with values up to the top index
+    private static BigDecimal[] promote(long[] unscaled, int[] scales, int top, int length) {
+        BigDecimal[] values = new BigDecimal[length];
+        for (int i = 0; i <= top; i++) {
+            values[i] = BigDecimal.valueOf(unscaled[i], scales[i]);
+        }
+        return values;
+    }
+}
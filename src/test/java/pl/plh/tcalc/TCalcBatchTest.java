@@ -0,0 +1,131 @@
+package pl.plh.tcalc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.ShuntingYard;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TCalcBatchTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Processor processor = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+
+    @Test
+    public void testResultsOfLines() throws IOException {
+        //GIVEN
+        String input = "1+2\r\n\n  \r\n2*3\n1/0\n1+\n7-10";
+
+        //WHEN
+        String output = run(new TCalcBatch(processor, 1), TCalcBatch.lines(new StringReader(input)));
+
+        //THEN
+        assertEquals(lines("3", "", "", "6", "Division by zero", "incorrect expression", "-3"), output);
+    }
+
+    @Test
+    public void testMappedLinesAcrossWindows() throws IOException {
+        //GIVEN
+        String[] inputs = {"1+2\n2*3\n", "1+2\r\n\r\n2*3\r\n", "\n\n12345678\n\n", "1+2\n2*3", "1+2\r\n2*3\r",
+            "x", "", "\n"};
+
+        for (String input : inputs) {
+            Path file = folder.newFile().toPath();
+            Files.write(file, input.getBytes(StandardCharsets.ISO_8859_1));
+            List<String> expected = toList(TCalcBatch.lines(new StringReader(input)));
+
+            // windows of one byte, two bytes ending in the middle of CRLF, and larger than the file
+            for (int windowSize : new int[] {1, 2, 3, 5, 1 << 26}) {
+                //WHEN
+                List<String> lines;
+                try (TCalcBatch.MappedLines mapped = new TCalcBatch.MappedLines(file, windowSize)) {
+                    lines = toList(mapped);
+                    assertFalse(mapped.hasNext());
+                }
+
+                //THEN
+                assertEquals(input.replace("\r", "\\r") + " in windows of " + windowSize, expected, lines);
+            }
+        }
+    }
+
+    @Test
+    public void testLineLongerThanWindow() throws IOException {
+        //GIVEN
+        StringBuilder input = new StringBuilder("1");
+        for (int i = 0; i < 1000; i++) {
+            input.append("+1");
+        }
+        Path file = folder.newFile().toPath();
+        Files.write(file, (input + "\n2*3\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        //WHEN
+        String output;
+        try (TCalcBatch.MappedLines mapped = new TCalcBatch.MappedLines(file, 64)) {
+            output = run(new TCalcBatch(processor, 1), mapped);
+        }
+
+        //THEN
+        assertEquals(lines("1001", "6"), output);
+    }
+
+    @Test
+    public void testParallelResultsInOrder() throws IOException {
+        //GIVEN
+        int count = 10_000;
+        StringBuilder input = new StringBuilder();
+        String[] expected = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (i % 7 == 0) {
+                input.append('\n');
+                expected[i] = "";
+            } else if (i % 11 == 0) {
+                input.append(i).append("/0\n");
+                expected[i] = "Division by zero";
+            } else {
+                input.append(i).append("*2+1\n");
+                expected[i] = Integer.toString(2 * i + 1);
+            }
+        }
+
+        //WHEN
+        String output = run(new TCalcBatch(processor, 4), TCalcBatch.lines(new StringReader(input.toString())));
+
+        //THEN
+        assertEquals(lines(expected), output);
+    }
+
+    private static String run(TCalcBatch batch, Iterator<String> expressions) throws IOException {
+        StringWriter output = new StringWriter();
+        batch.run(expressions, output);
+        return output.toString();
+    }
+
+    private static List<String> toList(Iterator<String> lines) {
+        List<String> list = new ArrayList<>();
+        lines.forEachRemaining(list::add);
+        return list;
+    }
+
+    private static String lines(String... lines) {
+        StringBuilder text = new StringBuilder();
+        Arrays.stream(lines).forEach(line -> text.append(line).append(System.lineSeparator()));
+        return text.toString();
+    }
+}
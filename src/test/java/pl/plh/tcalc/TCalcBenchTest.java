@@ -0,0 +1,85 @@
+package pl.plh.tcalc;
+
+import org.junit.Test;
+import pl.plh.tcalc.processor.ParseException;
+import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.ProcessorMetrics;
+import pl.plh.tcalc.processor.ShuntingYard;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TCalcBenchTest {
+    private final Processor processor = new Processor(new ShuntingYard(), null, new TieredPostfixCalculator(), null,
+            new ProcessorMetrics());
+
+    // literals of up to 2 digits are integers, so they do not depend on the decimal separator
+    @Test
+    public void testGenerator() {
+        //WHEN
+        String[] expressions = new TCalcBench.Generator(7, 8, 2, 2, "mixed").generate(200, 30);
+
+        //THEN
+        assertArrayEquals(expressions, new TCalcBench.Generator(7, 8, 2, 2, "mixed").generate(200, 30));
+        int invalid = 0;
+        for (String expression : expressions) {
+            if (processor.process(expression).equals(ParseException.MESSAGE)) {
+                invalid++;
+            }
+        }
+        assertTrue(invalid > 30 && invalid < 90);
+        TCalcBench.Generator generator = new TCalcBench.Generator(7, 8, 2, 2, "div");
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals(ParseException.MESSAGE, processor.process(generator.nextValid()));
+            assertEquals(ParseException.MESSAGE, processor.process(generator.nextInvalid()));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRun() throws InterruptedException {
+        //GIVEN
+        String[] expressions = new TCalcBench.Generator(1, 4, 1, 2, "add").generate(100, 50);
+
+        //WHEN
+        TCalcBench.Report report = new TCalcBench(processor, 2).run(expressions, 50, 200, TimeUnit.MILLISECONDS);
+
+        //THEN
+        assertTrue(report.getExpressionCount() > 0);
+        assertEquals(report.getExpressionCount(), report.getMetrics().getProcessLatency().getCount());
+        assertEquals(report.getExpressionCount(),
+                report.getMetrics().getSuccessCount() + report.getMetrics().getParseErrorCount());
+        assertTrue(report.getMetrics().getParseErrorCount() > 0);
+        assertTrue(report.getLatencyNanos(50) > 0);
+        assertTrue(report.getLatencyNanos(50) <= report.getLatencyNanos(99));
+        assertTrue(report.getLatencyNanos(99) <= report.getLatencyNanos(99.9));
+        assertTrue(report.getLatencyNanos(99.9) <= report.getMaxLatencyNanos());
+        assertTrue(report.toString().contains("p999="));
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        //GIVEN
+        TCalcBench.Latencies latencies = new TCalcBench.Latencies();
+        for (long nanos = 1; nanos <= 100000; nanos++) {
+            latencies.record(nanos);
+        }
+
+        //WHEN & THEN
+        assertEquals(100000, latencies.getCount());
+        assertEquals(100000, latencies.getMaxNanos());
+        long previous = 0;
+        for (double percentile : new double[] {0.01, 1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            long expected = (long) Math.ceil(percentile * 1000);
+            long actual = latencies.getPercentileNanos(percentile);
+            // upper bounds of buckets
+            assertTrue(percentile + ": " + actual, actual >= expected && actual <= expected * 1.04);
+            assertTrue(actual >= previous);
+            previous = actual;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package pl.plh.tcalc;
+
+import org.junit.Test;
+import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.ShuntingYard;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class TCalcCsvTest {
+    private final Processor processor = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+
+    @Test
+    public void testColumnsBoundToVariables() throws IOException {
+        //GIVEN
+        String input = "qty, unused ,price\n2,x,3\n 4 ,,0.5\n\n-1,7,10,11\n3,0,1E+2\n";
+
+        //WHEN & THEN
+        assertEquals(Arrays.asList("6", "2", "-10", "300"), run("price*qty", input));
+        assertEquals(Arrays.asList("Division by zero", "Division by zero", "Division by zero", "Division by zero"),
+                run("qty/(unused-unused)", "qty,unused\n1,2\n2,3\n3,4\n4,5"));
+    }
+
+    @Test
+    public void testIncorrectRows() throws IOException {
+        //GIVEN
+        String input = "a,b\n1,2\n1,x\n3\n,4\n1,2,\n1;2\n5,6";
+
+        //WHEN & THEN
+        assertEquals(Arrays.asList("3", "incorrect row", "incorrect row", "incorrect row", "3", "incorrect row",
+                "11"), run("a+b", input));
+    }
+
+    @Test
+    public void testConstantExpression() throws IOException {
+        //WHEN & THEN
+        assertEquals(Arrays.asList("5", "5", "5"), run("2+3", "a,b\n1,2\nx\n\n3,4,5"));
+        assertEquals(new ArrayList<String>(), run("2+3", "a,b\n"));
+        assertEquals(new ArrayList<String>(), run("2+3", ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingColumn() throws IOException {
+        //WHEN
+        run("a+c", "a,b\n1,2");
+    }
+
+    @Test
+    public void testManyRows() throws IOException {
+        //GIVEN
+        int rows = 10000;
+        StringBuilder input = new StringBuilder("x,y\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            // incorrect rows in between, so values of a row are not left for the next one
+            if (i % 7 == 6) {
+                input.append(i).append(",?\n");
+                expected.add("incorrect row");
+            } else {
+                input.append(i).append(',').append(i % 10).append('\n');
+                expected.add(Integer.toString(i * 10 + i % 10));
+            }
+        }
+
+        //WHEN & THEN
+        assertEquals(expected, run("x*10+y", input.toString()));
+    }
+
+    private List<String> run(String expression, String input) throws IOException {
+        StringWriter output = new StringWriter();
+        new TCalcCsv(processor.compile(expression)).run(new StringReader(input), output);
+        return new BufferedReader(new StringReader(output.toString())).lines().collect(Collectors.toList());
+    }
+}
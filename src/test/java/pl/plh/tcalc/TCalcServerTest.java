@@ -0,0 +1,126 @@
+package pl.plh.tcalc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pl.plh.tcalc.processor.Processor;
+import pl.plh.tcalc.processor.ShuntingYard;
+import pl.plh.tcalc.processor.TieredPostfixCalculator;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TCalcServerTest {
+    private TCalcServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        Processor processor = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+        server = new TCalcServer(processor, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, 16);
+        server.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testPipelinedRequests() throws IOException {
+        //GIVEN
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+
+            //WHEN
+            write(socket, "1+2\n\n2*3\r\n1/0\n1+\n12345678901234567890\n7-10\n");
+
+            //THEN
+            assertEquals("3", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals("6", in.readLine());
+            assertEquals("Division by zero", in.readLine());
+            assertEquals("incorrect expression", in.readLine());
+            assertEquals(TCalcServer.TOO_LONG_MESSAGE, in.readLine());
+            assertEquals("-3", in.readLine());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testManyConnections() throws IOException {
+        //GIVEN
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                sockets.add(connect());
+            }
+
+            //WHEN
+            for (int i = 0; i < sockets.size(); i++) {
+                StringBuilder lines = new StringBuilder();
+                for (int j = 0; j < 50; j++) {
+                    lines.append(i).append('*').append(j).append('\n');
+                }
+                write(sockets.get(i), lines.toString());
+            }
+
+            //THEN
+            for (int i = 0; i < sockets.size(); i++) {
+                BufferedReader in = reader(sockets.get(i));
+                for (int j = 0; j < 50; j++) {
+                    assertEquals(String.valueOf(i * j), in.readLine());
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testGracefulShutdown() throws IOException, InterruptedException {
+        //GIVEN
+        try (Socket socket = connect()) {
+            BufferedReader in = reader(socket);
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                lines.append(i).append("+1\n");
+            }
+            write(socket, lines.toString());
+            assertEquals("1", in.readLine());
+
+            //WHEN
+            assertTrue(server.shutdown(5, TimeUnit.SECONDS));
+
+            //THEN
+            for (int i = 1; i < 100; i++) {
+                assertEquals(String.valueOf(i + 1), in.readLine());
+            }
+            assertNull(in.readLine());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(server.getAddress().getAddress(), server.getAddress().getPort());
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void write(Socket socket, String lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
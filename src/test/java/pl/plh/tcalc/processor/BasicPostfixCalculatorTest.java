@@ -0,0 +1,70 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BasicPostfixCalculatorTest {
+    @Test
+    public void testGuardedChainWithinErrorBound() {
+        //GIVEN
+        int limit = 20;
+        PostfixCalculator exact = new BasicPostfixCalculator(limit);
+        PostfixCalculator guarded = new BasicPostfixCalculator(limit, 5, BasicPostfixCalculator.UNCAPPED);
+        PostfixProgram.Builder builder = new PostfixProgram.Builder().push(new BigDecimal("1.000000007"));
+        for (int i = 0; i < 1000; i++) {
+            builder.push(new BigDecimal("1.234567891")).operation(Opcode.MUL);
+        }
+        PostfixProgram program = builder.build();
+
+        //WHEN
+        BigDecimal exactResult = exact.calculate(program);
+        BigDecimal guardedResult = guarded.calculate(program);
+
+        //THEN
+        assertEquals(limit, guardedResult.precision());
+        assertTrue(exactResult.subtract(guardedResult).abs().compareTo(exactResult.ulp()) <= 0);
+    }
+
+    @Test
+    public void testCappedPrecision() {
+        //GIVEN
+        PostfixCalculator capped = new BasicPostfixCalculator(20, BasicPostfixCalculator.EXACT, 30);
+        ShuntingYard converter = new ShuntingYard();
+
+        //WHEN & THEN
+        assertEquals(new BigDecimal("1524157875019052100"), capped.calculate(converter.compile("1234567890*1234567890")));
+        assertCapExceeded(capped, converter.compile("1234567890*1234567890*1234567890*1234567890"));
+        assertCapExceeded(capped, new PostfixProgram.Builder().push(new BigDecimal("1E+20"))
+                .push(new BigDecimal("1E-20")).operation(Opcode.ADD).build());
+    }
+
+    @Test
+    public void testGuardedAndCappedMultiplication() {
+        //GIVEN
+        PostfixCalculator capped = new BasicPostfixCalculator(5, 2, 7);
+        PostfixCalculator uncapped = new BasicPostfixCalculator(5, 2, BasicPostfixCalculator.UNCAPPED);
+        ShuntingYard converter = new ShuntingYard();
+        PostfixProgram thirds = converter.compile("(1/3)*(1/3)");
+        PostfixProgram integers = converter.compile("1234567*7654321");
+
+        //WHEN & THEN
+        assertEquals(new BigDecimal("0.11111"), capped.calculate(thirds));
+        assertEquals(uncapped.calculate(thirds), capped.calculate(thirds));
+        assertEquals(uncapped.calculate(integers), capped.calculate(integers));
+        assertEquals(uncapped.calculate(thirds), new TieredPostfixCalculator(5, 2, 7).calculate(thirds));
+    }
+
+    private static void assertCapExceeded(PostfixCalculator calculator, PostfixProgram program) {
+        try {
+            calculator.calculate(program);
+            fail("cap not exceeded by " + program);
+        } catch (ArithmeticException e) {
+            assertEquals("Intermediate result over 30 digits", e.getMessage());
+        }
+    }
+}
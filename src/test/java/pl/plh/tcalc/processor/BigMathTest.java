@@ -0,0 +1,120 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BigMathTest {
+    private static final MathContext MC = new MathContext(90, RoundingMode.HALF_UP);
+
+    @Test
+    public void testSqrt() {
+        assertReference("1.414213562373095048801688724209698078569671875376948073176679737990732478462107038850387534327641573",
+                BigMath.sqrt(new BigDecimal("2"), MC));
+        assertReference("0.01732050807568877293527446341505872366942805253810380628055806979451933016908800037081146186757248576",
+                BigMath.sqrt(new BigDecimal("0.0003"), MC));
+        assertReference("3513641828.820144253093654172555782217909240844808040670317509692597982060166700573125716553258197584",
+                BigMath.sqrt(new BigDecimal("12345678901234567890"), MC));
+        assertEquals(0, BigMath.sqrt(new BigDecimal("16"), MC).compareTo(new BigDecimal("4")));
+        assertEquals(0, BigMath.sqrt(new BigDecimal("0.0625"), MC).compareTo(new BigDecimal("0.25")));
+    }
+
+    @Test
+    public void testExp() {
+        assertReference("2.718281828459045235360287471352662497757247093699959574966967627724076630353547594571382178525166427",
+                BigMath.exp(BigDecimal.ONE, MC));
+        assertReference("0.3678794411714423215955237701614608674458111310317678345078368016974614957448998033571472743459196437",
+                BigMath.exp(BigDecimal.ONE.negate(), MC));
+        assertReference("44319559098458954160107061979564816895899481.87063064907487691185492512593297152837165767697499127241",
+                BigMath.exp(new BigDecimal("100.5"), MC));
+        assertReference("0.9999990000004999998333333749999916666680555553571428819444416887127976190225669413212814384689499397",
+                BigMath.exp(new BigDecimal("-0.000001"), MC));
+    }
+
+    @Test
+    public void testLn() {
+        assertReference("0.6931471805599453094172321214581765680755001343602552541206800094933936219696947156058633269964186875",
+                BigMath.ln(new BigDecimal("2"), MC));
+        assertReference("2.302585092994045684017991454684364207601101488628772976033327900967572609677352480235997205089598298",
+                BigMath.ln(BigDecimal.TEN, MC));
+        assertReference("-0.001000500333583533500142982254068344960755205250434409250988020797245202385869474688122817155429967880",
+                BigMath.ln(new BigDecimal("0.999"), MC));
+        assertReference("230.2585092994045684017991454684364207601101488628772976033327900967572609677352480235997205089598298",
+                BigMath.ln(new BigDecimal("1E+100"), MC));
+        assertReference("-11.30591129558590229286393157283061616018380939317935974687933806287553535811720088881604753944146919",
+                BigMath.ln(new BigDecimal("0.0000123"), MC));
+    }
+
+    @Test
+    public void testPow() {
+        assertReference("1.414213562373095048801688724209698078569671875376948073176679737990732478462107038850387534327641573",
+                BigMath.pow(new BigDecimal("2"), new BigDecimal("0.5"), MC));
+        assertReference("2.718145926825224864037664674913146536113822649220720818370865873787419773771513968473052781477839520",
+                BigMath.pow(new BigDecimal("1.0001"), new BigDecimal("10000"), MC));
+        assertReference("0.004115226337448559670781893004115226337448559670781893004115226337448559670781893004115226337448559671",
+                BigMath.pow(new BigDecimal("3"), new BigDecimal("-5"), MC));
+        assertReference("198.4613416202777658712468791216164809358638268006554766482853471153810776396770663248620751203431774",
+                BigMath.pow(new BigDecimal("10.5"), new BigDecimal("2.25"), MC));
+        assertEquals(new BigDecimal("1024"), BigMath.pow(new BigDecimal("2"), new BigDecimal("10"), MC));
+        assertEquals(new BigDecimal("2.25"), BigMath.pow(new BigDecimal("1.5"), new BigDecimal("2.0"), MC));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testLnOfZero() {
+        BigMath.ln(BigDecimal.ZERO, MC);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testPowerOfNegativeNumber() {
+        BigMath.pow(new BigDecimal("-2"), new BigDecimal("0.5"), MC);
+    }
+
+    @Test
+    public void testInversesWithinPrecision() {
+        //GIVEN
+        Random random = new Random(5);
+        MathContext mc = new MathContext(50, RoundingMode.HALF_UP);
+
+        for (int i = 0; i < 300; i++) {
+            BigDecimal x = new BigDecimal(random.nextLong() & Long.MAX_VALUE).movePointLeft(random.nextInt(40));
+
+            //WHEN & THEN
+            BigDecimal root = BigMath.sqrt(x, mc);
+            // x lies between squares of the neighbours of its root
+            assertTrue(root.subtract(root.ulp()).pow(2).compareTo(x) <= 0);
+            assertTrue(root.add(root.ulp()).pow(2).compareTo(x) >= 0);
+            assertWithinUlps(x, BigMath.exp(BigMath.ln(x, new MathContext(mc.getPrecision() + 5)), mc), 2);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPerformance() {
+        // each function at the default limit of the calculator, far below the timeout on any machine
+        MathContext mc = new MathContext(70, RoundingMode.HALF_UP);
+        for (int i = 1; i <= 1000; i++) {
+            BigDecimal x = BigDecimal.valueOf(i).movePointLeft(1);
+            BigMath.sqrt(x, mc);
+            BigMath.ln(x, mc);
+            BigMath.exp(x, mc);
+            BigMath.pow(x, new BigDecimal("2.5"), mc);
+            BigMath.pow(x, new BigDecimal("1000"), mc);
+        }
+    }
+
+    private static void assertReference(String reference, BigDecimal actual) {
+        assertEquals(MC.getPrecision(), actual.precision());
+        assertWithinUlps(new BigDecimal(reference).round(MC), actual, 1);
+    }
+
+    private static void assertWithinUlps(BigDecimal expected, BigDecimal actual, int ulps) {
+        BigDecimal error = expected.subtract(actual).abs();
+        assertTrue(actual + " is not " + expected,
+                error.compareTo(actual.ulp().multiply(BigDecimal.valueOf(ulps))) <= 0);
+    }
+}
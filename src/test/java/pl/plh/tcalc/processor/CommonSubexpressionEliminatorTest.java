@@ -0,0 +1,106 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CommonSubexpressionEliminatorTest {
+    @Test
+    public void testEliminate() {
+        //GIVEN
+        PostfixProgram program = new ShuntingYard().compile("(a+b*c)/(a+b*c+1)");
+        BigDecimal[] arguments = {new BigDecimal("1.5"), new BigDecimal("2"), new BigDecimal("-0.25")};
+
+        //WHEN
+        CommonSubexpressionEliminator.Elimination elimination = new CommonSubexpressionEliminator().eliminate(program);
+
+        //THEN
+        PostfixProgram eliminated = elimination.getProgram();
+        assertEquals(5, elimination.getDeduplicatedNodes());
+        assertEquals(1, eliminated.getRegisterCount());
+        assertEquals(program.size() - 5 + 2, eliminated.size());
+        assertEquals(program.toString(), eliminated.toString());
+        assertEquals(program.getVariables(), eliminated.getVariables());
+        assertEquals(new BasicPostfixCalculator().calculate(program, arguments),
+                new BasicPostfixCalculator().calculate(eliminated, arguments));
+    }
+
+    @Test
+    public void testEliminateNestedSubexpressions() {
+        //GIVEN
+        PostfixProgram program = new ShuntingYard().compile("(x*y+x*y)*(x*y+x*y)");
+
+        //WHEN
+        CommonSubexpressionEliminator.Elimination elimination = new CommonSubexpressionEliminator().eliminate(program);
+
+        //THEN
+        // x y * STORE RECALL + STORE RECALL *
+        assertEquals(10, elimination.getDeduplicatedNodes());
+        assertEquals(9, elimination.getProgram().size());
+        assertEquals(program.toString(), elimination.getProgram().toString());
+    }
+
+    @Test
+    public void testEliminateNothing() {
+        //GIVEN
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        PostfixProgram leaves = new ShuntingYard().compile("x*x+2*2");
+        // constants of different scales are different subexpressions
+        PostfixProgram scales = PostfixProgram.of(Arrays.asList("x", "1", "+", "x", "1.0", "+", "*"));
+
+        //WHEN & THEN
+        assertSame(leaves, eliminator.eliminate(leaves).getProgram());
+        assertEquals(0, eliminator.eliminate(leaves).getDeduplicatedNodes());
+        assertSame(scales, eliminator.eliminate(scales).getProgram());
+    }
+
+    @Test
+    public void testResultsAndErrorsIdenticalToOriginalPrograms() {
+        //GIVEN
+        Random random = new Random(3);
+        String[] operands = {"x", "y", "(x+y)", "(x/y)", "(1/y)", "(x*y-1)", "sqrt(x)", "2", "(1/2)"};
+        String[] operators = {"+", "-", "*", "/"};
+        BigDecimal[][] rows = {{new BigDecimal("3.25"), new BigDecimal("-2")}, {BigDecimal.ONE, BigDecimal.ZERO},
+                {new BigDecimal("12345678901234567"), new BigDecimal("0.001")}};
+        PostfixCalculator[] calculators = {new BasicPostfixCalculator(12), new TieredPostfixCalculator(12)};
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+        ShuntingYard converter = new ShuntingYard();
+
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder infix = new StringBuilder("(x+y)");
+            int terms = 1 + random.nextInt(8);
+            for (int j = 0; j < terms; j++) {
+                infix.append(operators[random.nextInt(operators.length)])
+                        .append(operands[random.nextInt(operands.length)]);
+                if (random.nextBoolean()) {
+                    infix.insert(0, '(').append(')');
+                }
+            }
+            PostfixProgram program = converter.compile(infix.toString());
+            PostfixProgram eliminated = eliminator.eliminate(program).getProgram();
+
+            for (PostfixCalculator calculator : calculators) {
+                for (BigDecimal[] row : rows) {
+                    //WHEN & THEN
+                    assertEquals(infix.toString(), result(calculator, program, row),
+                            result(calculator, eliminated, row));
+                }
+            }
+        }
+    }
+
+    // Returns a result with its scale or a message of an arithmetic error
+    private static String result(PostfixCalculator calculator, PostfixProgram program, BigDecimal... arguments) {
+        try {
+            BigDecimal result = calculator.calculate(program, arguments);
+            return result.unscaledValue() + "E" + (-result.scale());
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+}
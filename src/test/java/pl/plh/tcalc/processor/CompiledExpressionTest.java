@@ -0,0 +1,91 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompiledExpressionTest {
+    private static final Locale DEFAULT_FORMAT_LOCALE = Locale.getDefault(Locale.Category.FORMAT);
+
+    @Before
+    public void setFormatLocaleWithCommaAsDefaultDecimalSeparator() {
+        Locale.setDefault(Locale.Category.FORMAT, new Locale("pl", "PL"));
+        assertEquals(',', new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator());
+    }
+
+    @After
+    public void restoreDefaultSystemFormatLocale() {
+        Locale.setDefault(DEFAULT_FORMAT_LOCALE);
+    }
+
+    @Test
+    public void testVariables() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+
+        //WHEN
+        CompiledExpression expression = proc.compile("price*(1-discount)/qty + price_2");
+
+        //THEN
+        assertEquals(Arrays.asList("price", "discount", "qty", "price_2"), expression.getVariables());
+    }
+
+    @Test
+    public void testEvaluate() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+        CompiledExpression expression = proc.compile("price*(1-discount)/qty");
+        Map<String, BigDecimal> bindings = new HashMap<>();
+        bindings.put("price", new BigDecimal("10.5"));
+        bindings.put("discount", new BigDecimal("0.1"));
+        bindings.put("qty", new BigDecimal("3"));
+
+        //WHEN & THEN
+        assertEquals("3,15", expression.evaluate(bindings));
+        assertEquals(new BigDecimal("3.15"), expression.calculate(bindings));
+        assertEquals("-1", expression.evaluate(BigDecimal.ONE, new BigDecimal(2), BigDecimal.ONE));
+        assertEquals("Division by zero", expression.evaluate(BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testEvaluateAll() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+        CompiledExpression expression = proc.compile("(-a)/b + a");
+        Map<String, BigDecimal[]> columns = new HashMap<>();
+        columns.put("a", new BigDecimal[]{new BigDecimal(1), new BigDecimal(6), new BigDecimal("0.5")});
+        columns.put("b", new BigDecimal[]{new BigDecimal(4), new BigDecimal(0), new BigDecimal("-0.5")});
+
+        //WHEN & THEN
+        assertArrayEquals(new String[]{"0,75", "Division by zero", "1,5"}, expression.evaluateAll(columns));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvaluateMissingVariable() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+        CompiledExpression expression = proc.compile("a+b");
+
+        //WHEN
+        expression.evaluate(new HashMap<String, BigDecimal>());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testCompileMalformed() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+
+        //WHEN
+        proc.compile("a+*b");
+    }
+}
@@ -0,0 +1,128 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompilingPostfixCalculatorTest {
+    @Test
+    public void testResultsAndErrorsIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(4);
+        String[] operands = {"x", "y", "(x-y)", "(x/y)", "(1/y)", "(x*y-1)", "sqrt(x)", "2", "(1/2)", "ln(y)",
+            "max(x;y;1/2)", "abs(y)^2", "exp(x/100)", "(150/100)"};
+        String[] operators = {"+", "-", "*", "/"};
+        BigDecimal[][] rows = {{new BigDecimal("3.25"), new BigDecimal("-2")}, {BigDecimal.ONE, BigDecimal.ZERO},
+                {new BigDecimal("12345678901234567"), new BigDecimal("0.001")}};
+        BasicPostfixCalculator basic = new BasicPostfixCalculator(20);
+        CompilingPostfixCalculator compiling = new CompilingPostfixCalculator(new BasicPostfixCalculator(20), 1, 16);
+        ShuntingYard converter = new ShuntingYard();
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+
+        for (int i = 0; i < 500; i++) {
+            StringBuilder infix = new StringBuilder("x-y");
+            int terms = 1 + random.nextInt(20);
+            for (int j = 0; j < terms; j++) {
+                String operand = operands[random.nextInt(operands.length)];
+                infix.append(operators[random.nextInt(operators.length)]).append(operand);
+                if (random.nextInt(3) == 0) {
+                    infix.insert(0, '(').append(')');
+                }
+            }
+            PostfixProgram program = converter.compile(infix.toString());
+            // registers of repeated operands
+            PostfixProgram eliminated = eliminator.eliminate(program).getProgram();
+
+            for (BigDecimal[] row : rows) {
+                //WHEN & THEN
+                String expected = result(basic, program, row);
+                assertEquals(infix.toString(), expected, result(compiling, program, row));
+                assertEquals(infix.toString(), expected, result(compiling, eliminated, row));
+            }
+            assertTrue(compiling.isCompiled(program));
+        }
+    }
+
+    @Test
+    public void testThresholdAndEviction() {
+        //GIVEN
+        CompilingPostfixCalculator compiling = new CompilingPostfixCalculator(new BasicPostfixCalculator(), 3, 2);
+        ShuntingYard converter = new ShuntingYard();
+        PostfixProgram hot = converter.compile("1/3+x");
+        PostfixProgram other = converter.compile("x*2");
+        PostfixProgram third = converter.compile("x-1");
+
+        //WHEN & THEN
+        compiling.calculate(hot, BigDecimal.ONE);
+        compiling.calculate(hot, BigDecimal.ONE);
+        assertFalse(compiling.isCompiled(hot));
+        compiling.calculate(hot, BigDecimal.ONE);
+        assertTrue(compiling.isCompiled(hot));
+        assertEquals(new BasicPostfixCalculator().calculate(hot, BigDecimal.TEN),
+                compiling.calculate(hot, BigDecimal.TEN));
+
+        compiling.calculate(other, BigDecimal.ONE);
+        compiling.calculate(third, BigDecimal.ONE);
+        assertEquals(1, compiling.getStats().getEvictions());
+        assertFalse(compiling.isCompiled(hot));
+    }
+
+    @Test
+    public void testRecentlyUsedProgramsKept() {
+        //GIVEN
+        CompilingPostfixCalculator compiling = new CompilingPostfixCalculator(new BasicPostfixCalculator(), 1, 2);
+        ShuntingYard converter = new ShuntingYard();
+        PostfixProgram first = converter.compile("x+1");
+        PostfixProgram second = converter.compile("x*2");
+        PostfixProgram third = converter.compile("x-1");
+
+        //WHEN
+        compiling.calculate(first, BigDecimal.ONE);
+        compiling.calculate(second, BigDecimal.ONE);
+        // compiled programs are used without the cache, but they are moved to the end of the eviction order
+        // once after a new program comes
+        compiling.calculate(first, BigDecimal.ONE);
+        compiling.calculate(first, BigDecimal.ONE);
+        compiling.calculate(third, BigDecimal.ONE);
+
+        //THEN
+        assertTrue(compiling.isCompiled(first));
+        assertFalse(compiling.isCompiled(second));
+        assertTrue(compiling.isCompiled(third));
+        CacheStats stats = compiling.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void testCappedPrecision() {
+        //GIVEN
+        PostfixProgram program = new ShuntingYard().compile("x*x*x");
+        BasicPostfixCalculator capped = new BasicPostfixCalculator(10, 2, 20);
+        CompilingPostfixCalculator compiling = new CompilingPostfixCalculator(capped, 1, 16);
+        BigDecimal small = new BigDecimal("1.5");
+        BigDecimal large = new BigDecimal("123456789012345678901");
+
+        //WHEN & THEN
+        assertEquals(capped.calculate(program, small), compiling.calculate(program, small));
+        assertTrue(compiling.isCompiled(program));
+        assertEquals(result(capped, program, large), result(compiling, program, large));
+    }
+
+    // Returns a result with its scale or a message of an arithmetic error
+    private static String result(PostfixCalculator calculator, PostfixProgram program, BigDecimal... arguments) {
+        try {
+            BigDecimal result = calculator.calculate(program, arguments);
+            return result.unscaledValue() + "E" + (-result.scale());
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelPostfixCalculatorTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+    // reassociates products only, without forking
+    private static final ForkJoinPool SINGLE_THREAD_POOL = new ForkJoinPool(1);
+
+    @AfterClass
+    public static void shutdownPools() {
+        POOL.shutdown();
+        SINGLE_THREAD_POOL.shutdown();
+    }
+
+    @Test
+    public void testLongSumIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(1);
+        PostfixProgram.Builder builder = new PostfixProgram.Builder().push(BigDecimal.ZERO);
+        for (int i = 0; i < 100000; i++) {
+            builder.push(new BigDecimal(BigInteger.valueOf(random.nextInt()), random.nextInt(20)));
+            builder.operation(random.nextInt(3) == 0 ? Opcode.SUB : Opcode.ADD);
+        }
+        PostfixProgram program = builder.build();
+
+        //WHEN & THEN
+        assertEquals(result(new BasicPostfixCalculator(), program), result(parallel(64), program));
+    }
+
+    @Test
+    public void testLongProductIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(2);
+        PostfixProgram.Builder builder = new PostfixProgram.Builder().push(BigDecimal.ONE);
+        for (int i = 0; i < 3000; i++) {
+            builder.push(new BigDecimal(new BigInteger(64, random).add(BigInteger.ONE), random.nextInt(10)));
+            builder.operation(Opcode.MUL);
+        }
+        PostfixProgram program = builder.build();
+
+        //WHEN & THEN
+        assertEquals(result(new BasicPostfixCalculator(), program), result(parallel(64), program));
+    }
+
+    @Test
+    public void testResultsAndErrorsIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(3);
+        String[] operands = {"x", "y", "(x-y)", "(x/y)", "(1/y)", "(x*y-1)", "sqrt(x)", "2", "(1/2)", "ln(y)"};
+        String[] operators = {"+", "-", "*", "/"};
+        BigDecimal[][] rows = {{new BigDecimal("3.25"), new BigDecimal("-2")}, {BigDecimal.ONE, BigDecimal.ZERO},
+                {new BigDecimal("12345678901234567"), new BigDecimal("0.001")}};
+        PostfixCalculator basic = new BasicPostfixCalculator(20);
+        PostfixCalculator parallel = new ParallelPostfixCalculator(new BasicPostfixCalculator(20), POOL, 4);
+        PostfixCalculator sequential = new ParallelPostfixCalculator(new BasicPostfixCalculator(20),
+                SINGLE_THREAD_POOL, 4);
+        ShuntingYard converter = new ShuntingYard();
+
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder infix = new StringBuilder("x-y");
+            int terms = 1 + random.nextInt(30);
+            for (int j = 0; j < terms; j++) {
+                String operand = operands[random.nextInt(operands.length)];
+                if (random.nextInt(4) == 0) {
+                    // nests chains into brackets on the right
+                    infix.append(operators[random.nextInt(operators.length)]).append('(').append(operand);
+                    infix.append(operators[random.nextInt(operators.length)]).append(operand).append(')');
+                } else {
+                    infix.append(operators[random.nextInt(operators.length)]).append(operand);
+                }
+                if (random.nextInt(3) == 0) {
+                    infix.insert(0, '(').append(')');
+                }
+            }
+            PostfixProgram program = converter.compile(infix.toString());
+
+            for (BigDecimal[] row : rows) {
+                //WHEN & THEN
+                String expected = result(basic, program, row);
+                assertEquals(infix.toString(), expected, result(parallel, program, row));
+                assertEquals(infix.toString(), expected, result(sequential, program, row));
+            }
+        }
+    }
+
+    @Test
+    public void testProductWithScalesOverflowingInOrder() {
+        //GIVEN
+        // (a*b)*c overflows, a*(b*c) would not
+        PostfixProgram program = PostfixProgram.of(Arrays.asList("1E-2000000000", "1E-2000000000", "*",
+                "1E+2000000000", "*"));
+
+        //WHEN & THEN
+        assertEquals(result(new BasicPostfixCalculator(), program), result(parallel(1), program));
+    }
+
+    @Test
+    public void testGuardedModeCalculatedSequentially() {
+        //GIVEN
+        PostfixProgram program = new ShuntingYard().compile("1/3+1/3+1/3+1/3-1/3*3*3*3");
+        BasicPostfixCalculator guarded = new BasicPostfixCalculator(10, 2, BasicPostfixCalculator.UNCAPPED);
+
+        //WHEN & THEN
+        assertEquals(result(guarded, program), result(new ParallelPostfixCalculator(guarded, POOL, 1), program));
+    }
+
+    private static PostfixCalculator parallel(int threshold) {
+        return new ParallelPostfixCalculator(new BasicPostfixCalculator(), POOL, threshold);
+    }
+
+    // Returns a result with its scale or a message of an arithmetic error
+    private static String result(PostfixCalculator calculator, PostfixProgram program, BigDecimal... arguments) {
+        try {
+            BigDecimal result = calculator.calculate(program, arguments);
+            return result.unscaledValue() + "E" + (-result.scale());
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PostfixOptimizerTest {
+    @Test
+    public void testOptimize() {
+        //GIVEN
+        PostfixOptimizer optimizer = new PostfixOptimizer(new BasicPostfixCalculator());
+        ShuntingYard converter = new ShuntingYard();
+
+        //WHEN & THEN
+        assertEquals("7", optimizer.optimize(converter.compile("1+2*3")).toString());
+        assertEquals("x ~", optimizer.optimize(converter.compile("-x")).toString());
+        assertEquals("x", optimizer.optimize(converter.compile("-(-(x))")).toString());
+        assertEquals("x ~", optimizer.optimize(converter.compile("-(-(-(x)))")).toString());
+        assertEquals("x", optimizer.optimize(converter.compile("x*1+0")).toString());
+        assertEquals("x", optimizer.optimize(converter.compile("1*(0+x)-0")).toString());
+        assertEquals("x y -", optimizer.optimize(converter.compile("x+(-y)")).toString());
+        assertEquals("x y +", optimizer.optimize(converter.compile("x-(-y)")).toString());
+        assertEquals("x -1.5 -", optimizer.optimize(converter.compile("x-(-(1*3)/2)")).toString());
+        assertEquals("x 2 *", optimizer.optimize(converter.compile("x*(4-2)")).toString());
+    }
+
+    @Test
+    public void testOptimizeKeepsVariablesOrder() {
+        //GIVEN
+        PostfixOptimizer optimizer = new PostfixOptimizer(new BasicPostfixCalculator());
+
+        //WHEN
+        PostfixProgram program = optimizer.optimize(new ShuntingYard().compile("a*1+b*0+c"));
+
+        //THEN
+        assertEquals(Arrays.asList("a", "b", "c"), program.getVariables());
+    }
+
+    @Test
+    public void testOptimizeNothing() {
+        //GIVEN
+        PostfixOptimizer optimizer = new PostfixOptimizer(new BasicPostfixCalculator());
+        PostfixProgram program = new ShuntingYard().compile("x*2+y/3");
+
+        //WHEN & THEN
+        assertSame(program, optimizer.optimize(program));
+    }
+
+    @Test
+    public void testOptimizeKeepsInexactAndFailingOperations() {
+        //GIVEN
+        PostfixOptimizer optimizer = new PostfixOptimizer(new BasicPostfixCalculator(5));
+        ShuntingYard converter = new ShuntingYard();
+
+        //WHEN & THEN
+        assertEquals("1 3 /", optimizer.optimize(converter.compile("1/3")).toString());
+        assertEquals("1 0 / 1 +", optimizer.optimize(converter.compile("1/0+1")).toString());
+        assertEquals("12345 10 *", optimizer.optimize(converter.compile("12345*10")).toString());
+        assertEquals("12345 10 /", optimizer.optimize(converter.compile("12345/10")).toString());
+        assertEquals("123.4", optimizer.optimize(converter.compile("1234/10")).toString());
+    }
+
+    @Test
+    public void testOptimizedResultsEqualOriginalResults() {
+        //GIVEN
+        Random random = new Random(11);
+        String[] operands = {"0", "1", "2", "7", "x", "y", "(1/2)", "(-x)", "(-y)", "(-(-x))"};
+        String[] operators = {"+", "-", "*", "/"};
+        BigDecimal[] arguments = {new BigDecimal("3.25"), BigDecimal.ZERO};
+        PostfixCalculator calculator = new BasicPostfixCalculator(12);
+        PostfixOptimizer optimizer = new PostfixOptimizer(calculator);
+        ShuntingYard converter = new ShuntingYard();
+
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder infix = new StringBuilder("x+y*0");
+            for (int j = random.nextInt(6); j >= 0; j--) {
+                infix.append(operators[random.nextInt(operators.length)]);
+                String operand = operands[random.nextInt(operands.length)];
+                infix.append(random.nextBoolean() ? operand : "(" + operand + "-" + operand + "*1)");
+            }
+            PostfixProgram program = converter.compile(infix.toString());
+
+            //WHEN & THEN
+            assertEquals(infix.toString(), result(calculator, program, arguments),
+                    result(calculator, optimizer.optimize(program), arguments));
+        }
+    }
+
+    @Test
+    public void testGuardedModeKeepsRoundedIdentities() {
+        //GIVEN
+        BigDecimal x = new BigDecimal("1.234549999");
+        ShuntingYard converter = new ShuntingYard();
+        PostfixCalculator[] calculators = {new BasicPostfixCalculator(5, 2, BasicPostfixCalculator.UNCAPPED),
+            new TieredPostfixCalculator(5, 2, BasicPostfixCalculator.UNCAPPED)};
+
+        for (PostfixCalculator calculator : calculators) {
+            PostfixOptimizer optimizer = new PostfixOptimizer(calculator);
+            for (String infix : new String[] {"0-x", "-x", "x*1", "1*x", "x+0", "0+x", "x-0"}) {
+                PostfixProgram program = converter.compile(infix);
+
+                //WHEN & THEN
+                assertEquals(infix, result(calculator, program, x),
+                        result(calculator, optimizer.optimize(program), x));
+            }
+            assertEquals("-1.2346", result(calculator, optimizer.optimize(converter.compile("0-x")), x));
+            assertEquals("0 x -", optimizer.optimize(converter.compile("-x")).toString());
+        }
+    }
+
+    @Test
+    public void testCappedModeKeepsCheckedIdentities() {
+        //GIVEN
+        PostfixCalculator[] calculators = {new BasicPostfixCalculator(20, BasicPostfixCalculator.EXACT, 30),
+            new TieredPostfixCalculator(20, BasicPostfixCalculator.EXACT, 30)};
+        PostfixProgram sum = new PostfixProgram.Builder().push(new BigDecimal("12345678901234567890"))
+                .push(new BigDecimal("0.00000000000000000000")).operation(Opcode.ADD).build();
+        PostfixProgram product = new PostfixProgram.Builder().push(new BigDecimal("123456789012345"))
+                .push(new BigDecimal("1.000000000000000")).operation(Opcode.MUL)
+                .push(new BigDecimal("123456789012345")).operation(Opcode.MUL).build();
+
+        for (PostfixCalculator calculator : calculators) {
+            PostfixOptimizer optimizer = new PostfixOptimizer(calculator);
+            for (PostfixProgram program : new PostfixProgram[] {sum, product}) {
+                //WHEN & THEN
+                assertEquals("Intermediate result over 30 digits", result(calculator, program));
+                assertEquals(result(calculator, program), result(calculator, optimizer.optimize(program)));
+            }
+        }
+    }
+
+    private static String result(PostfixCalculator calculator, PostfixProgram program, BigDecimal... arguments) {
+        try {
+            return calculator.calculate(program, arguments).stripTrailingZeros().toPlainString();
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+}
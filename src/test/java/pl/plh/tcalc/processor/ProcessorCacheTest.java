@@ -0,0 +1,88 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProcessorCacheTest {
+    private static final Locale DEFAULT_FORMAT_LOCALE = Locale.getDefault(Locale.Category.FORMAT);
+
+    @Before
+    public void setFormatLocaleWithCommaAsDefaultDecimalSeparator() {
+        Locale.setDefault(Locale.Category.FORMAT, new Locale("pl", "PL"));
+        assertEquals(',', new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator());
+    }
+
+    @After
+    public void restoreDefaultSystemFormatLocale() {
+        Locale.setDefault(DEFAULT_FORMAT_LOCALE);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("1+2", ProcessorCache.normalize("1+2", ','));
+        assertEquals("1+2", ProcessorCache.normalize(" \t1 +  2 ", ','));
+        assertEquals("(-1,5)*x", ProcessorCache.normalize("( - 1,5 ) * x", ','));
+        assertEquals("1 2", ProcessorCache.normalize("1 \t 2", ','));
+        assertEquals("1 ,2", ProcessorCache.normalize("1 ,2", ','));
+        assertEquals("a b+1", ProcessorCache.normalize("a  b + 1", ','));
+    }
+
+    @Test
+    public void testProcessCached() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator(), new ProcessorCache(10));
+
+        //WHEN & THEN
+        assertEquals("0,5", proc.process("2/4"));
+        assertEquals("0,5", proc.process(" 2 / 4 "));
+        assertEquals("incorrect expression", proc.process("1 2"));
+        assertEquals("incorrect expression", proc.process("1 2"));
+        assertEquals("Division by zero", proc.process("1/0"));
+        assertEquals("12", proc.process("12"));
+        assertEquals(4, proc.getCache().getResultStats().getMisses());
+        assertEquals(2, proc.getCache().getResultStats().getHits());
+        assertEquals(4, proc.getCache().getResultStats().getSize());
+        assertEquals(4, proc.getCache().getProgramStats().getMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator(), new ProcessorCache(2));
+
+        //WHEN
+        proc.process("1+1");
+        proc.process("1+2");
+        proc.process("1+1");
+        proc.process("1+3"); // evicts the least recently used "1+2"
+        proc.process("1+1");
+        proc.process("1+2");
+
+        //THEN
+        CacheStats stats = proc.getCache().getResultStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(4, stats.getMisses());
+        assertEquals(2, stats.getEvictions());
+        assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void testCompileCached() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator(), new ProcessorCache(10));
+
+        //WHEN
+        CompiledExpression first = proc.compile("a * b");
+        CompiledExpression second = proc.compile("a*b");
+
+        //THEN
+        assertEquals(first.getProgram(), second.getProgram());
+        assertEquals(1, proc.getCache().getProgramStats().getHits());
+    }
+}
@@ -0,0 +1,83 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessorMetricsTest {
+    @Test
+    public void testCounters() {
+        //GIVEN
+        ProcessorMetrics metrics = new ProcessorMetrics();
+        Processor proc = new Processor(new ShuntingYard(), null, new BasicPostfixCalculator(), null, metrics);
+
+        //WHEN
+        proc.process("2+2");
+        proc.process("3*4");
+        proc.process("1/0");
+        proc.process("2+");
+
+        //THEN
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getSuccessCount());
+        assertEquals(1, snapshot.getParseErrorCount());
+        assertEquals(1, snapshot.getArithmeticErrorCount());
+        assertEquals(0, snapshot.getUnexpectedErrorCount());
+        assertEquals(4, snapshot.getProcessLatency().getCount());
+        assertEquals(3, snapshot.getConvertLatency().getCount());
+        assertEquals(2, snapshot.getFormatLatency().getCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        //GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        //WHEN
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+
+        //THEN
+        LatencyStats stats = histogram.getStats();
+        assertEquals(100, stats.getCount());
+        assertEquals(127, stats.getP50Nanos());
+        assertEquals(127, stats.getP99Nanos());
+        assertEquals(5000, stats.getP999Nanos());
+        assertEquals(5000, stats.getMaxNanos());
+        assertEquals(149, stats.getMeanNanos());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        //GIVEN
+        ProcessorMetrics metrics = new ProcessorMetrics();
+        Processor proc = new Processor(new ShuntingYard(), null, new BasicPostfixCalculator(), null, metrics);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register("test");
+        try {
+            //WHEN
+            proc.compile("x/2").calculate(BigDecimal.ONE);
+
+            //THEN
+            assertEquals(1L, server.getAttribute(name, "SuccessCount"));
+            CompositeData calculate = (CompositeData) server.getAttribute(name, "CalculateLatency");
+            assertEquals(1L, calculate.get("count"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.snapshot().getSuccessCount());
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+        assertTrue(name.toString().startsWith("pl.plh.tcalc:"));
+    }
+}
@@ -4,7 +4,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
 
@@ -114,6 +119,38 @@ public class ProcessorTest {
         assertEquals(expected, proc.process(spaced));
     }
 
+    @Test
+    public void testProcessPowersAndFunctions() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+
+        //WHEN & THEN
+        assertEquals("1024", proc.process("2^10"));
+        assertEquals("512", proc.process("2^3^2"));
+        assertEquals("-4", proc.process("-2^2"));
+        assertEquals("4", proc.process("(-2)^2"));
+        assertEquals("0,5", proc.process("2^(-1)"));
+        assertEquals("13", proc.process("1+3*2^2"));
+        assertEquals("4", proc.process("sqrt(16)"));
+        assertEquals("1,414213562373095048801688724209698078569671875376948073176679737990732",
+                proc.process("sqrt(2)"));
+        assertEquals("3", proc.process("abs(-3)"));
+        assertEquals("1", proc.process("min(3; 1; 2)"));
+        assertEquals("1", proc.process("max(1;-2)"));
+        assertEquals("2", proc.process("max(1;2)"));
+        assertEquals("1,5", proc.process("min(1,5;2)"));
+        assertEquals("1", proc.process("exp(0)"));
+        assertEquals("0", proc.process("ln(1)"));
+        assertEquals("5", proc.process("max(sqrt(9)+2; abs(min(-1;-4)))"));
+        assertEquals("Logarithm of a non-positive number", proc.process("ln(0)"));
+        assertEquals("Square root of a negative number", proc.process("sqrt(-1)"));
+        assertEquals("Division by zero", proc.process("0^(-1)"));
+        for (String malformed : new String[] {"min(1)", "sqrt(1;2)", "sqrt", "sqrt 4", "(1;2)", "min(1;)",
+                "min(;1)", "2^-1", "2^", "sqrt()", "ln=1"}) {
+            assertEquals(malformed, "incorrect expression", proc.process(malformed));
+        }
+    }
+
     @Test
     public void testProcessMalformed() {
         //GIVEN
@@ -121,9 +158,9 @@ public class ProcessorTest {
         String message = "incorrect expression";
         String[] inData = {"1++2", "1+-2", "1+*2", "1+/2", "1-+2", "1--2", "1-*2", "1-/2", "1*+2", "1*-2", "1**2",
                 "1*/2", "1/+2", "1/-2", "1/*2", "1//2", "1(2+3)", "(1+2)3", "1 2", "1,2 3,4",
-                "1,2,3", "a+2", "A", "0x1", "1+2%", "1%", "3$", "1^2", "1+(*2+3)", "1-(/2-3)",
+                "1,2,3", "a+2", "A", "0x1", "1+2%", "1%", "3$", "1+(*2+3)", "1-(/2-3)",
                 "1+(2+4+)", "1+(2+4-)", "1+(2+4*)", "1+(2+4/)", "(1+2)(3+4)", "()+1", "1+(2+3", "1+2)+3",
-                "((1+2)-(3-4))*5)+6", "(((1+2)-(3-4))*5+6"};
+                "((1+2)-(3-4))*5)+6", "(((1+2)-(3-4))*5+6", "2a", "a 2", "a b", "(1)a", "a(1)", "x+1"};
 
         //WHEN & THEN
         for (int i = 0; i < inData.length; i++) {
@@ -198,4 +235,31 @@ public class ProcessorTest {
         assertEquals("Division by zero", proc.process(divisionOneByZero));
         assertEquals("Division by zero", proc.process(divisionByZeroEmbeded));
     }
+
+    @Test
+    public void testProcessAll() {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator());
+        List<String> inData = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            inData.add(i + "/8-(" + i % 7 + "*3)");
+            expected.add(proc.process(inData.get(i)));
+        }
+        inData.add("1/0");
+        expected.add("Division by zero");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        //WHEN & THEN
+        try {
+            assertEquals(expected, proc.processAll(inData));
+            assertEquals(expected, proc.processAll(inData, executor));
+            List<String> streamed = new ArrayList<>();
+            proc.processAll(inData.iterator(), streamed::add, executor, 3, 7);
+            assertEquals(expected, streamed);
+            assertEquals(Arrays.asList("2", "", "incorrect expression"), proc.processAll(Arrays.asList("1+1", " ", "1+")));
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
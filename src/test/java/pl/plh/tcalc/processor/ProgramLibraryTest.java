@@ -0,0 +1,97 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ProgramLibraryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        //GIVEN
+        ShuntingYard converter = new ShuntingYard();
+        PostfixProgram[] programs = {
+            converter.compile("2+3*4"),
+            converter.compile("price*(1-discount)/qty"),
+            PostfixProgram.of(Arrays.asList("-1234567890123456789012345.6789", "1E+5", "0.000", "~", "max", "*")),
+            new CommonSubexpressionEliminator().eliminate(converter.compile("(a+b*c)/(a+b*c+1)")).getProgram(),
+            new PostfixProgram.Builder().declare("unused").push(BigDecimal.TEN).build()
+        };
+        Path file = folder.newFile("programs.tcl").toPath();
+
+        //WHEN
+        try (ProgramLibraryWriter writer = new ProgramLibraryWriter(file)) {
+            for (int i = 0; i < programs.length; i++) {
+                assertEquals(i, writer.write(programs[i]));
+            }
+        }
+        ProgramLibrary library = ProgramLibrary.open(file);
+
+        //THEN
+        assertEquals(programs.length, library.size());
+        for (int i = programs.length - 1; i >= 0; i--) {
+            assertEqualPrograms(programs[i], library.get(i));
+        }
+        assertSame(library.get(3), library.get(3));
+        assertEquals(1, library.get(3).getRegisterCount());
+    }
+
+    @Test
+    public void testEmptyAndCorruptedLibraries() throws IOException {
+        //GIVEN
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ProgramLibraryWriter(out).close();
+        ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+        try (ProgramLibraryWriter writer = new ProgramLibraryWriter(corrupted)) {
+            writer.write(new ShuntingYard().compile("1+2"));
+        }
+        byte[] bytes = corrupted.toByteArray();
+        // the opcode of "+"
+        bytes[bytes.length - 13] = (byte) 100;
+
+        //WHEN & THEN
+        assertEquals(0, ProgramLibrary.of(ByteBuffer.wrap(out.toByteArray())).size());
+        ProgramLibrary library = ProgramLibrary.of(ByteBuffer.wrap(bytes));
+        try {
+            library.get(0);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("corrupted program 0", e.getMessage());
+        }
+        try {
+            ProgramLibrary.of(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}));
+            fail();
+        } catch (IOException e) {
+            assertEquals("not a program library", e.getMessage());
+        }
+    }
+
+    private static void assertEqualPrograms(PostfixProgram expected, PostfixProgram actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getOpcode(i), actual.getOpcode(i));
+            assertEquals(expected.getOperand(i), actual.getOperand(i));
+        }
+        assertEquals(expected.getConstantCount(), actual.getConstantCount());
+        for (int i = 0; i < expected.getConstantCount(); i++) {
+            // equal scales too
+            assertEquals(expected.getConstant(i), actual.getConstant(i));
+        }
+        assertEquals(expected.getVariables(), actual.getVariables());
+        assertEquals(expected.getMaxStackDepth(), actual.getMaxStackDepth());
+        assertEquals(expected.getRegisterCount(), actual.getRegisterCount());
+    }
+}
@@ -0,0 +1,86 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.Assert.assertEquals;
+
+public class RationalPostfixCalculatorTest {
+    private final PostfixCalculator rational = new RationalPostfixCalculator(20);
+
+    @Test
+    public void testExactResults() {
+        //WHEN & THEN
+        assertEquals("1", calculate("1/3*3"));
+        assertEquals("0.125", calculate("1/8"));
+        assertEquals("1", calculate("1/7+1/7+1/7+1/7+1/7+1/7+1/7"));
+        assertEquals("2.5", calculate("10/4"));
+        assertEquals("-0.001", calculate("1/(-1000)"));
+        assertEquals("1.5", calculate("max(1/2;3/2;1)"));
+        assertEquals("0.015625", calculate("(1/2)^6"));
+        assertEquals("64", calculate("(1/2)^(-6)"));
+        assertEquals("12345678901234567890", calculate("12345678901234567890/3*3"));
+    }
+
+    @Test
+    public void testResultsRoundedOnce() {
+        //WHEN & THEN
+        assertEquals("0.33333333333333333333", calculate("1/3"));
+        assertEquals("0.14285714285714285714", calculate("1/7"));
+        assertEquals("1.4142135623730950488", calculate("sqrt(2)"));
+        // a terminating decimal of more digits than limit
+        assertEquals(new BigDecimal("1").divide(new BigDecimal(2).pow(70), new MathContext(20)).toPlainString(),
+                calculate("1/2^70"));
+        // harmonic sum of 1/1..1/30 as an exact fraction, rounded once
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 2; i <= 30; i++) {
+            sum.append("+1/").append(i);
+        }
+        assertEquals("3.9949871309203910705", calculate(sum.toString()));
+    }
+
+    @Test
+    public void testExponentsOfValues() {
+        //GIVEN
+        PostfixProgram product = new ShuntingYard().compile("x*y/3*3");
+        PostfixProgram sum = new ShuntingYard().compile("x+y");
+        BigDecimal large = new BigDecimal("25E+100000");
+        BigDecimal small = new BigDecimal("4E-100000");
+
+        //WHEN & THEN
+        assertEquals(new BigDecimal(100), rational.calculate(product, large, small));
+        assertEquals(new BigDecimal("2.5E+100002"), rational.calculate(product, large, BigDecimal.TEN));
+        assertEquals("Exponents of values too far apart for fractions", calculate(sum, large, BigDecimal.ONE));
+    }
+
+    @Test
+    public void testErrors() {
+        //WHEN & THEN
+        assertEquals("Division by zero", calculate("1/(2-2)"));
+        assertEquals("Division undefined", calculate("0/0"));
+        assertEquals("Division by zero", calculate("0^(-1)"));
+        assertEquals(calculate(new BasicPostfixCalculator(20), "2*sqrt(-1)"), calculate("2*sqrt(-1)"));
+    }
+
+    private String calculate(String infix) {
+        return calculate(rational, infix);
+    }
+
+    private static String calculate(PostfixCalculator calculator, String infix) {
+        try {
+            return calculator.calculate(new ShuntingYard().compile(infix)).toPlainString();
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+
+    private String calculate(PostfixProgram program, BigDecimal... arguments) {
+        try {
+            return rational.calculate(program, arguments).toPlainString();
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultFormatterTest {
+    private static final Locale POLISH = new Locale("pl", "PL");
+
+    @Test
+    public void testFormat() {
+        //GIVEN
+        ResultFormatter formatter = new ResultFormatter();
+
+        //WHEN & THEN
+        assertEquals("0", formatter.format(new BigDecimal("0.000"), 5, POLISH));
+        assertEquals("1200", formatter.format(new BigDecimal("1.2E+3"), 5, POLISH));
+        assertEquals("-0,0012", formatter.format(new BigDecimal("-0.00120"), 6, POLISH));
+        assertEquals("-0,0012", formatter.format(new BigDecimal("-0.00120"), 5, POLISH));
+        assertEquals("-120E-9", formatter.format(new BigDecimal("-0.00000012"), 5, POLISH));
+        assertEquals("12E+3", formatter.format(new BigDecimal("1.2E+4"), 4, POLISH));
+        assertEquals("3.25", formatter.format(new BigDecimal("3.250"), 4, Locale.US));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLossOfValue() {
+        new ResultFormatter().format(new BigDecimal("1.25"), 2, POLISH);
+    }
+
+    @Test
+    public void testSameAsPlainStringFormat() throws IOException {
+        //GIVEN
+        ResultFormatter formatter = new ResultFormatter();
+        Random random = new Random(12);
+        StringBuilder reused = new StringBuilder();
+
+        //WHEN & THEN
+        for (int i = 0; i < 20000; i++) {
+            BigInteger unscaled = new BigInteger(1 + random.nextInt(90), random);
+            if (random.nextInt(4) == 0) {
+                unscaled = unscaled.multiply(BigInteger.TEN.pow(random.nextInt(5)));
+            }
+            BigDecimal number = new BigDecimal(random.nextBoolean() ? unscaled : unscaled.negate(),
+                    random.nextInt(60) - 20);
+            int limit = number.precision() + random.nextInt(30);
+            String expected = referenceFormat(number, limit);
+            assertEquals(number.toString(), expected, formatter.format(number, limit, POLISH));
+            reused.setLength(0);
+            assertEquals(expected, formatter.format(number, limit, POLISH, reused).toString());
+            assertEquals(expected, formatter.format(number, limit, POLISH, new StringWriter()).toString());
+        }
+    }
+
+    // the original formatter with ',' as the decimal separator
+    private static String referenceFormat(BigDecimal number, int limit) {
+        BigDecimal bd = number.stripTrailingZeros();
+        String plainStr = bd.toPlainString();
+        int digits = plainStr.length();
+        if (bd.scale() > 0) {
+            digits--;
+        }
+        String result = digits > limit ? bd.toEngineeringString() : plainStr;
+        return result.replace('.', ',');
+    }
+}
@@ -0,0 +1,92 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultTest {
+    private final Processor proc = new Processor(new ShuntingYard(), new TieredPostfixCalculator());
+
+    @Test
+    public void testValue() {
+        //WHEN
+        Result result = proc.evaluate("2*(3+4)");
+
+        //THEN
+        assertFalse(result.isError());
+        assertEquals(0, new BigDecimal(14).compareTo(result.getValue()));
+        assertEquals("14", result.getText());
+        assertNull(result.getErrorCode());
+        assertEquals(-1, result.getOffset());
+    }
+
+    @Test
+    public void testMalformedExpressions() {
+        //WHEN & THEN
+        assertMalformed(proc.evaluate("1+*2"), 2, "operand");
+        assertMalformed(proc.evaluate("1+2 3"), 4, "operator");
+        assertMalformed(proc.evaluate("(1+2"), 4, ")");
+        assertMalformed(proc.evaluate("1)+2"), 1, "operator");
+        assertMalformed(proc.evaluate("sqrt 2"), 5, "(");
+        assertMalformed(proc.evaluate("1+"), 2, "operand");
+        assertMalformed(proc.evaluate("2*x+1"), 2, "number");
+        assertMalformed(proc.evaluate(" "), 1, "operand");
+    }
+
+    @Test
+    public void testOffsetsWithCache() {
+        //GIVEN
+        Processor cached = new Processor(new ShuntingYard(), new TieredPostfixCalculator(), new ProcessorCache(16));
+        String[] inputs = {"1 + * 2", "   1 +", "(1 + 2))", "2 * x + 1"};
+
+        for (String input : inputs) {
+            //WHEN
+            Result expected = proc.evaluate(input);
+            Result result = cached.evaluate(input);
+
+            //THEN
+            assertEquals(input, expected.getOffset(), result.getOffset());
+            assertEquals(input, expected.getExpected(), result.getExpected());
+        }
+        assertMalformed(cached.evaluate("1 + * 2"), 4, "operand");
+        // a program compiled for "2 * x + 1" is cached under "2*x+1"
+        assertMalformed(cached.evaluate("2*x+1"), 2, "number");
+    }
+
+    @Test
+    public void testArithmeticErrors() {
+        //WHEN
+        Result byZero = proc.evaluate("1/0");
+        Result undefined = proc.evaluate("0/0");
+        Result sqrt = proc.evaluate("sqrt(-1)");
+
+        //THEN
+        assertTrue(byZero.isError());
+        assertEquals(Result.ErrorCode.DIVISION_BY_ZERO, byZero.getErrorCode());
+        assertEquals("Division by zero", byZero.getText());
+        assertEquals(Result.ErrorCode.DIVISION_BY_ZERO, undefined.getErrorCode());
+        assertEquals("Division undefined", undefined.getText());
+        assertEquals(Result.ErrorCode.ARITHMETIC_ERROR, sqrt.getErrorCode());
+        assertNull(sqrt.getValue());
+    }
+
+    @Test
+    public void testErrorsHaveNoStackTrace() {
+        //WHEN & THEN
+        assertEquals(0, new ParseException().getStackTrace().length);
+        assertEquals(0, new CalculationException("Division by zero").getStackTrace().length);
+    }
+
+    private static void assertMalformed(Result result, int offset, String expected) {
+        assertTrue(result.isError());
+        assertEquals(Result.ErrorCode.MALFORMED_EXPRESSION, result.getErrorCode());
+        assertEquals(ParseException.MESSAGE, result.getText());
+        assertEquals(offset, result.getOffset());
+        assertEquals(expected, result.getExpected());
+    }
+}
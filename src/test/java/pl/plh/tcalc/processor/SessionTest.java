@@ -0,0 +1,113 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SessionTest {
+    private final Session session = new Session(new Processor(new ShuntingYard(), new TieredPostfixCalculator()));
+
+    @Test
+    public void testAssignmentsAndAns() {
+        //WHEN & THEN
+        assertEquals("ans is not defined", session.execute("ans+1"));
+        assertEquals("6", session.execute("a = 2*3"));
+        assertEquals("37", session.execute("b=a*a + 1"));
+        assertEquals("38", session.execute("ans + 1"));
+        assertEquals("76", session.execute("c = ans*2"));
+        assertEquals("43", session.execute("a+b"));
+        assertEquals("incorrect expression", session.execute("1 = 2"));
+        assertEquals("incorrect expression", session.execute("a ="));
+        assertEquals("sqrt is a reserved name", session.execute("sqrt = 4"));
+        assertEquals("ans is a reserved name", session.execute("ans = 4"));
+        assertEquals("x is not defined", session.execute("x*2"));
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(session.getNames().toArray()));
+    }
+
+    @Test
+    public void testValuesKeptAtCalculatorPrecision() {
+        //WHEN
+        session.execute("third = 1/3");
+        session.execute("one = third*3");
+
+        //THEN
+        BigDecimal third = BigDecimal.ONE.divide(new BigDecimal(3), new MathContext(70));
+        assertEquals(third, session.getValue("third"));
+        assertEquals(third.multiply(new BigDecimal(3)), session.getValue("one"));
+    }
+
+    @Test
+    public void testRedefinitionRecomputesDependentsOnly() {
+        //GIVEN
+        session.execute("a = 1");
+        session.execute("b = a + 1");
+        session.execute("c = b*a");
+        session.execute("d = 5");
+        session.execute("e = d + 1");
+        session.execute("f = ans*2");
+
+        //WHEN
+        assertEquals("2", session.execute("a = 2"));
+
+        //THEN
+        assertEquals(Arrays.asList("b", "c"), session.getRecomputed());
+        assertEquals("6", session.getResult("c"));
+        // f keeps ans of its definition
+        assertEquals("12", session.getResult("f"));
+
+        //WHEN
+        session.execute("d = 10");
+
+        //THEN
+        assertEquals(Collections.singletonList("e"), session.getRecomputed());
+        assertEquals("11", session.getResult("e"));
+    }
+
+    @Test
+    public void testUndefinedFailedAndCircularNames() {
+        //WHEN & THEN
+        assertEquals("x is not defined", session.execute("b = x + 1"));
+        assertEquals("1", session.execute("x = 1"));
+        assertEquals(Collections.singletonList("b"), session.getRecomputed());
+        assertEquals("2", session.getResult("b"));
+
+        assertEquals("Division by zero", session.execute("x = 1/0"));
+        assertEquals("Division by zero", session.getResult("b"));
+        assertNull(session.getValue("b"));
+
+        assertEquals("circular reference to b", session.execute("x = b*2"));
+        assertEquals("circular reference to x", session.execute("x = x + 1"));
+        assertEquals("Division by zero", session.getResult("x"));
+        assertEquals("3", session.execute("x = 3"));
+        assertEquals("4", session.getResult("b"));
+    }
+
+    @Test
+    public void testLongChainOfDefinitions() {
+        //GIVEN
+        int length = 20000;
+        session.execute("a0 = 0");
+        for (int i = 1; i < length; i++) {
+            session.execute("a" + i + " = a" + (i - 1) + " + 1");
+        }
+
+        //WHEN
+        session.execute("a0 = 1");
+
+        //THEN
+        assertEquals(length - 1, session.getRecomputed().size());
+        assertEquals(String.valueOf(length), session.getResult("a" + (length - 1)));
+
+        //WHEN
+        session.execute("a" + (length - 1) + " = 0");
+
+        //THEN
+        assertEquals(Collections.emptyList(), session.getRecomputed());
+    }
+}
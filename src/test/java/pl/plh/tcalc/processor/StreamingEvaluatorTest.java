@@ -0,0 +1,131 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingEvaluatorTest {
+    private static final Locale DEFAULT_FORMAT_LOCALE = Locale.getDefault(Locale.Category.FORMAT);
+
+    @Before
+    public void setFormatLocaleWithCommaAsDefaultDecimalSeparator() {
+        Locale.setDefault(Locale.Category.FORMAT, new Locale("pl", "PL"));
+        assertEquals(',', new DecimalFormat().getDecimalFormatSymbols().getDecimalSeparator());
+    }
+
+    @After
+    public void restoreDefaultSystemFormatLocale() {
+        Locale.setDefault(DEFAULT_FORMAT_LOCALE);
+    }
+
+    @Test
+    public void testSameResultsAsProcessor() throws IOException {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator(20));
+        StreamingEvaluator evaluator = new StreamingEvaluator(new BasicPostfixCalculator(20));
+        String[] expressions = {"2+3*4", "-(2-3)*(4+5)/7", "1/3", " 12 * ( 3 - -4 ) ", "((1))",
+                "100000000000000000000*3", "1/0", "2+", "()", "1 2", "x+1", " "};
+
+        //WHEN & THEN
+        for (String expression : expressions) {
+            String expected = expression.trim().isEmpty() ? "incorrect expression" : proc.process(expression);
+            assertEquals(expression, expected, evaluator.process(new StringReader(expression)));
+            assertEquals(expression, expected, evaluator.process(new OneCharReader(expression)));
+        }
+    }
+
+    @Test
+    public void testSameResultsAsProcessorWithPrecisionCap() throws IOException {
+        //GIVEN
+        Processor proc = new Processor(new ShuntingYard(), new BasicPostfixCalculator(5, 1, 6));
+        StreamingEvaluator evaluator = new StreamingEvaluator(new BasicPostfixCalculator(5, 1, 6));
+        String[] expressions = {"1234567", "1+1234567", "123456+1", "123456*2", "1/3"};
+
+        //WHEN & THEN
+        for (String expression : expressions) {
+            assertEquals(expression, proc.process(expression), evaluator.process(new StringReader(expression)));
+        }
+        assertEquals("Intermediate result over 6 digits", evaluator.process(new StringReader("1234567")));
+    }
+
+    @Test
+    public void testErrorsInOrderOfOccurrence() throws IOException {
+        //GIVEN
+        StreamingEvaluator evaluator = new StreamingEvaluator(new BasicPostfixCalculator());
+
+        //WHEN & THEN
+        assertEquals("Division by zero", evaluator.process(new StringReader("1/0+2+")));
+    }
+
+    @Test
+    public void testLongExpression() throws IOException {
+        //GIVEN
+        StreamingEvaluator evaluator = new StreamingEvaluator(new BasicPostfixCalculator());
+        int terms = 1_000_000;
+
+        //WHEN
+        BigDecimal result = evaluator.calculate(new TermsReader(terms));
+
+        //THEN
+        assertEquals(BigDecimal.valueOf(terms), result);
+    }
+
+    // Reads one char at a time, so every char crosses a block boundary
+    private static final class OneCharReader extends Reader {
+        private final String source;
+        private int position;
+
+        OneCharReader(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == source.length()) {
+                return -1;
+            }
+            buffer[offset] = source.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Generates "(1)+(1)+..." without holding it in memory
+    private static final class TermsReader extends Reader {
+        private static final String TERM = "+(1)";
+        private final long length;
+        private long position = 1;
+
+        TermsReader(int terms) {
+            this.length = (long) terms * TERM.length();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == this.length) {
+                return -1;
+            }
+            int count = (int) Math.min(length, this.length - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = TERM.charAt((int) (position++ % TERM.length()));
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
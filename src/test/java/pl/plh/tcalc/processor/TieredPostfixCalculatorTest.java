@@ -0,0 +1,98 @@
+package pl.plh.tcalc.processor;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TieredPostfixCalculatorTest {
+    private static final Opcode[] OPERATIONS = {Opcode.ADD, Opcode.SUB, Opcode.MUL, Opcode.DIV,
+        Opcode.MIN, Opcode.MAX};
+    private static final String[] VALUES = {"0", "1", "2", "3", "4", "5", "8", "10", "100", "0.5", "0.25", "1.0",
+        "0.01", "7.30", "999999999999999999", "123456789012345678", "0.000001", "25", "1000000000", "9.99"};
+
+    @Test
+    public void testResultsIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(7);
+        int[] limits = {1, 3, 16, 70};
+
+        for (int limit : limits) {
+            PostfixCalculator basic = new BasicPostfixCalculator(limit);
+            PostfixCalculator tiered = new TieredPostfixCalculator(limit);
+            for (int i = 0; i < 20000; i++) {
+                PostfixProgram program = randomProgram(random, 1 + random.nextInt(8));
+
+                //WHEN & THEN
+                assertEquals(program + " limit " + limit, result(basic, program), result(tiered, program));
+            }
+        }
+    }
+
+    @Test
+    public void testGuardedAndCappedResultsIdenticalToBasicCalculator() {
+        //GIVEN
+        Random random = new Random(11);
+        int[][] configurations = {{3, 2, 5}, {3, BasicPostfixCalculator.EXACT, 8}, {10, 3, 13},
+            {16, BasicPostfixCalculator.EXACT, 20}, {70, 10, BasicPostfixCalculator.UNCAPPED}};
+
+        for (int[] configuration : configurations) {
+            PostfixCalculator basic = new BasicPostfixCalculator(configuration[0], configuration[1], configuration[2]);
+            PostfixCalculator tiered = new TieredPostfixCalculator(configuration[0], configuration[1], configuration[2]);
+            for (int i = 0; i < 20000; i++) {
+                PostfixProgram program = randomProgram(random, 1 + random.nextInt(8));
+
+                //WHEN & THEN
+                assertEquals(program + " " + Arrays.toString(configuration), result(basic, program),
+                        result(tiered, program));
+            }
+        }
+    }
+
+    @Test
+    public void testVariables() {
+        //GIVEN
+        PostfixProgram program = new ShuntingYard().compile("a*b/c-a");
+        BigDecimal[][] rows = {{new BigDecimal("1.5"), new BigDecimal("4"), new BigDecimal("0.3")},
+                {new BigDecimal("1E+3"), new BigDecimal("-2.50"), new BigDecimal("7")},
+                {new BigDecimal("12345678901234567890.5"), BigDecimal.TEN, new BigDecimal("3")},
+                {BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ZERO}};
+
+        for (BigDecimal[] row : rows) {
+            //WHEN & THEN
+            assertEquals(result(new BasicPostfixCalculator(), program, row),
+                    result(new TieredPostfixCalculator(), program, row));
+        }
+    }
+
+    // Returns a result with its scale or a message of an arithmetic error
+    private static String result(PostfixCalculator calculator, PostfixProgram program, BigDecimal... arguments) {
+        try {
+            BigDecimal result = calculator.calculate(program, arguments);
+            return result.unscaledValue() + "E" + (-result.scale());
+        } catch (ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static PostfixProgram randomProgram(Random random, int operations) {
+        PostfixProgram.Builder builder = new PostfixProgram.Builder();
+        builder.push(randomValue(random));
+        for (int i = 0; i < operations; i++) {
+            builder.push(randomValue(random));
+            builder.operation(OPERATIONS[random.nextInt(OPERATIONS.length)]);
+            if (random.nextInt(4) == 0) {
+                builder.operation(random.nextBoolean() ? Opcode.NEG : Opcode.ABS);
+            }
+        }
+        return builder.build();
+    }
+
+    private static BigDecimal randomValue(Random random) {
+        BigDecimal value = new BigDecimal(VALUES[random.nextInt(VALUES.length)]);
+        return random.nextBoolean() ? value : value.negate();
+    }
+}